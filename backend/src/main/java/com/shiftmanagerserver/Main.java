@@ -2,21 +2,25 @@ package com.shiftmanagerserver;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 import com.shiftmanagerserver.modules.Module;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
 
 public class Main {
 
     static Injector injector = Guice.createInjector(new Module());
-    static MainVerticle mainVerticle = injector.getInstance(MainVerticle.class);
     public static void main(String[] args) {
-        Vertx vertx = Vertx.vertx();
-        vertx.deployVerticle(mainVerticle, ar -> {
+        Vertx vertx = injector.getInstance(Vertx.class);
+        int instances = injector.getInstance(Key.get(Integer.class, Names.named("http.instances")));
+        // Each instance is a fresh MainVerticle with its own router on its own event loop
+        vertx.deployVerticle(() -> injector.getInstance(MainVerticle.class), new DeploymentOptions().setInstances(instances), ar -> {
             if (ar.succeeded()) {
-                System.out.println("Verticle deployed successfully");
+                System.out.println("Deployed " + instances + " verticle instance(s) successfully");
             } else {
                 System.out.println("Failed to deploy verticle: " + ar.cause().getMessage());
             }
         });
     }
-} 
\ No newline at end of file
+}
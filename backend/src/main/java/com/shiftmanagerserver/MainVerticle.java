@@ -2,18 +2,18 @@ package com.shiftmanagerserver;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
-import com.shiftmanagerserver.dao.RedisConfig;
 import com.shiftmanagerserver.handlers.*;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
+import io.vertx.core.http.HttpServerOptions;
 import io.vertx.ext.web.Router;
-import io.vertx.ext.web.handler.StaticHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.shiftmanagerserver.service.JWTService;
 import com.shiftmanagerserver.handlers.JWTAuthHandler;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.PasswordHasher;
 import com.shiftmanagerserver.service.ShiftService;
 import com.shiftmanagerserver.service.ShiftWeightSettingsService;
 import com.shiftmanagerserver.service.UserService;
@@ -21,100 +21,101 @@ import com.shiftmanagerserver.service.UserService;
 public class MainVerticle extends AbstractVerticle {
     private final Logger logger;
     private final Integer port;
-    private final String redisUrl;
-    private final String redisToken;
     private final Router router;
+    private final HttpServerOptions serverOptions;
     private final UserService userService;
     private final ConstraintService constraintService;
     private final ShiftService shiftService;
     private final ShiftWeightSettingsService shiftWeightSettingsService;
     private final BackupHandler backupHandler;
+    private final PasswordHasher passwordHasher;
     private final ObjectMapper objectMapper;
-    private JWTService jwtService;
+    private final JWTService jwtService;
+    private final Startup startup;
 
     @Inject
     public MainVerticle(
             @Named("PORT") Integer port,
-            @Named("redis.url") String redisUrl,
-            @Named("redis.token") String redisToken,
             Router router,
+            HttpServerOptions serverOptions,
             UserService userService,
             ConstraintService constraintService,
             ShiftService shiftService,
             ShiftWeightSettingsService shiftWeightSettingsService,
             BackupHandler backupHandler,
-            ObjectMapper objectMapper
+            PasswordHasher passwordHasher,
+            ObjectMapper objectMapper,
+            JWTService jwtService,
+            Startup startup
     ) {
         this.port = port;
-        this.redisUrl = redisUrl;
-        this.redisToken = redisToken;
         this.router = router;
+        this.serverOptions = serverOptions;
         this.userService = userService;
         this.constraintService = constraintService;
         this.shiftService = shiftService;
         this.shiftWeightSettingsService = shiftWeightSettingsService;
         this.backupHandler = backupHandler;
+        this.passwordHasher = passwordHasher;
         this.objectMapper = objectMapper;
+        this.jwtService = jwtService;
+        this.startup = startup;
         this.logger = LoggerFactory.getLogger(MainVerticle.class);
     }
 
     @Override
     public void start(Promise<Void> startPromise) {
-        logger.info("Starting Shift-Manager application...");
-
-        // Initialize Redis
-        try {
-            RedisConfig.initialize(vertx, redisUrl, redisToken);
-            logger.info("Redis initialized with URL: {}", redisUrl);
-        } catch (Exception e) {
-            logger.error("Failed to initialize Redis", e);
-            startPromise.fail(e);
-            return;
-        }
-
-        userService.ensureAdminUser();
-
-        // JWT setup using custom service
-        String jwtSecret = System.getenv().getOrDefault("JWT_SECRET", "supersecretkeysupersecretkey123456supersecretkeysupersecretkey123456");
-        jwtService = new JWTService(jwtSecret);
-        logger.info("JWT authentication enabled with custom service");
-
+        logger.info("Starting Shift-Manager HTTP verticle...");
 
         // Manually construct handlers
         AuthHandler authHandler = new AuthHandler(userService, objectMapper, jwtService);
         UserHandler userHandler = new UserHandler(userService, objectMapper);
-        ConstraintHandler constraintHandler = new ConstraintHandler(constraintService, objectMapper);
+        ConstraintHandler constraintHandler = new ConstraintHandler(constraintService, userService, objectMapper);
         ShiftHandler shiftHandler = new ShiftHandler(shiftService, userService, constraintService, shiftWeightSettingsService, objectMapper);
         ShiftWeightSettingsHandler shiftWeightSettingsHandler = new ShiftWeightSettingsHandler(shiftWeightSettingsService, objectMapper);
-
-        bindRoutes(router, authHandler, userHandler, constraintHandler, shiftHandler, shiftWeightSettingsHandler, backupHandler);
-
-        vertx.createHttpServer()
-                .requestHandler(router)
-                .listen(port, http -> {
-                    if (http.succeeded()) {
-                        startPromise.complete();
-                        logger.info("HTTP server started on port " + port);
-                    } else {
-                        logger.error("Failed to start HTTP server", http.cause());
-                        startPromise.fail(http.cause());
-                    }
-                });
+        EventsHandler eventsHandler = new EventsHandler(vertx);
+        HealthHandler healthHandler = new HealthHandler(userService, constraintService, shiftService, shiftWeightSettingsService, passwordHasher);
+        StaticAssetsHandler staticAssetsHandler = new StaticAssetsHandler();
+
+        bindRoutes(router, authHandler, userHandler, constraintHandler, shiftHandler, shiftWeightSettingsHandler, backupHandler, healthHandler, eventsHandler, staticAssetsHandler);
+
+        // Another instance may have run the startup, continue on this verticle's own event loop
+        startup.run(vertx).onComplete(started -> context.runOnContext(v -> {
+            if (started.failed()) {
+                startPromise.fail(started.cause());
+                return;
+            }
+            // Every instance listens on the same port, Vert.x spreads the connections between them
+            vertx.createHttpServer(serverOptions)
+                    .requestHandler(router)
+                    .listen(port, http -> {
+                        if (http.succeeded()) {
+                            startPromise.complete();
+                            logger.info("HTTP server started on port " + port);
+                        } else {
+                            logger.error("Failed to start HTTP server", http.cause());
+                            startPromise.fail(http.cause());
+                        }
+                    });
+        }));
     }
 
     @Override
     public void stop(Promise<Void> stopPromise) {
-        RedisConfig.close();
+        startup.release();
         stopPromise.complete();
     }
 
     private void bindRoutes(Router router,
                             AuthHandler authHandler, UserHandler userHandler, ConstraintHandler constraintHandler,
-                            ShiftHandler shiftHandler, ShiftWeightSettingsHandler shiftWeightSettingsHandler, BackupHandler backupHandler) {
+                            ShiftHandler shiftHandler, ShiftWeightSettingsHandler shiftWeightSettingsHandler, BackupHandler backupHandler,
+                            HealthHandler healthHandler, EventsHandler eventsHandler,
+                            StaticAssetsHandler staticAssetsHandler) {
 
 
         // API routes first
         authHandler.addRoutes(router); // login/signup are public
+        healthHandler.addRoutes(router); // readiness probe is public
         
         // Protect all API routes except auth using custom JWT handler
         JWTAuthHandler jwtAuthHandler = new JWTAuthHandler(jwtService);
@@ -122,20 +123,18 @@ public class MainVerticle extends AbstractVerticle {
         router.route("/api/constraints*").handler(jwtAuthHandler);
         router.route("/api/shifts*").handler(jwtAuthHandler);
         router.route("/api/shift-weight-settings*").handler(jwtAuthHandler);
-        router.route("/api/backup").handler(jwtAuthHandler);
+        router.route("/api/backup*").handler(jwtAuthHandler);
+        // EventSource can't send headers, so the token may also come as a query parameter
+        router.route("/api/events").handler(new JWTAuthHandler(jwtService, true));
 
         userHandler.addRoutes(router);
         constraintHandler.addRoutes(router);
         shiftHandler.addRoutes(router);
         shiftWeightSettingsHandler.addRoutes(router);
         backupHandler.addRoutes(router);
+        eventsHandler.addRoutes(router);
 
-        // Serve static files from the 'static' directory
-        router.route("/*").handler(StaticHandler.create("static"));
-
-        // Fallback: serve index.html for SPA routes (only if no static file matched)
-        router.route().last().handler(ctx -> {
-            ctx.response().sendFile("static/index.html");
-        });
+        // Static files from the 'static' directory, index.html for SPA routes
+        staticAssetsHandler.addRoutes(router);
     }
 }
@@ -0,0 +1,98 @@
+package com.shiftmanagerserver;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.shiftmanagerserver.dao.RedisConfig;
+import com.shiftmanagerserver.service.ChangeJournal;
+import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.ShiftService;
+import com.shiftmanagerserver.service.ShiftWeightSettingsService;
+import com.shiftmanagerserver.service.UserService;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The work that happens once per process no matter how many {@link MainVerticle} instances are deployed:
+ * connecting to Redis, loading the services and creating the admin user. The first instance to start runs it,
+ * the others wait for the same result. Redis is closed again when the last instance stops.
+ */
+@Singleton
+public class Startup {
+    private static final Logger logger = LoggerFactory.getLogger(Startup.class);
+    private final String redisUrl;
+    private final String redisToken;
+    private final UserService userService;
+    private final ConstraintService constraintService;
+    private final ShiftService shiftService;
+    private final ShiftWeightSettingsService shiftWeightSettingsService;
+    private final ChangeJournal journal;
+    private Future<Void> started;
+    private int running;
+
+    @Inject
+    public Startup(@Named("redis.url") String redisUrl,
+                   @Named("redis.token") String redisToken,
+                   UserService userService,
+                   ConstraintService constraintService,
+                   ShiftService shiftService,
+                   ShiftWeightSettingsService shiftWeightSettingsService,
+                   ChangeJournal journal) {
+        this.redisUrl = redisUrl;
+        this.redisToken = redisToken;
+        this.userService = userService;
+        this.constraintService = constraintService;
+        this.shiftService = shiftService;
+        this.shiftWeightSettingsService = shiftWeightSettingsService;
+        this.journal = journal;
+    }
+
+    public synchronized Future<Void> run(Vertx vertx) {
+        running++;
+        if (started != null) {
+            return started;
+        }
+        try {
+            RedisConfig.initialize(vertx, redisUrl, redisToken);
+            logger.info("Redis initialized with URL: {}", redisUrl);
+        } catch (Exception e) {
+            logger.error("Failed to initialize Redis", e);
+            started = Future.failedFuture(e);
+            return started;
+        }
+
+        // Load everything before accepting traffic so the first requests don't pay for it
+        Promise<Void> promise = Promise.promise();
+        started = promise.future();
+        long warmUpStart = System.currentTimeMillis();
+        warmUpServices().onComplete(warmUp -> {
+            if (warmUp.succeeded()) {
+                logger.info("Services warmed up in {} ms", System.currentTimeMillis() - warmUpStart);
+            } else {
+                logger.warn("Service warm-up failed, data will be loaded on first use", warmUp.cause());
+            }
+            userService.ensureAdminUser();
+            promise.complete();
+        });
+        return started;
+    }
+
+    public synchronized void release() {
+        if (--running == 0) {
+            RedisConfig.close();
+        }
+    }
+
+    private Future<Void> warmUpServices() {
+        return Future.all(
+                userService.warmUp(),
+                constraintService.warmUp(),
+                shiftWeightSettingsService.warmUp(),
+                shiftService.warmUp(),
+                journal.warmUp()
+        ).mapEmpty();
+    }
+}
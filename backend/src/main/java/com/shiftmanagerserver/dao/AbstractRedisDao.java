@@ -4,20 +4,25 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.redis.client.Command;
 import io.vertx.redis.client.Redis;
 import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.io.IOException;
 
 public abstract class AbstractRedisDao<T> implements AsyncIO<T, T> {
     protected final ObjectMapper mapper;
+    protected final PayloadCodec codec;
     protected final String key;
     protected Logger logger = LoggerFactory.getLogger(AbstractRedisDao.class);
 
-    protected AbstractRedisDao(ObjectMapper mapper, String key, Logger logger) {
+    protected AbstractRedisDao(ObjectMapper mapper, PayloadCodec codec, String key, Logger logger) {
         this.mapper = mapper;
+        this.codec = codec;
         this.key = key;
         this.logger = logger;
     }
@@ -36,14 +41,13 @@ public abstract class AbstractRedisDao<T> implements AsyncIO<T, T> {
     public Future<Void> write(T data) {
         Promise<Void> promise = Promise.promise();
         try {
-            String json = mapper.writeValueAsString(data);
+            Buffer payload = codec.encode(mapper, data);
             Redis redisClient = getRedisClient();
             redisClient.connect()
                     .onSuccess(conn -> {
-                        RedisAPI redis = RedisAPI.api(conn);
-                        redis.set(List.of(key, json))
+                        conn.send(Request.cmd(Command.SET).arg(key).arg(payload))
                                 .onSuccess(res -> {
-                                    logger.info("Saved data to Redis with key: {}", key);
+                                    logger.info("Saved {} bytes to Redis with key: {}", payload.length(), key);
                                     conn.close();
                                     promise.complete();
                                 })
@@ -64,9 +68,37 @@ public abstract class AbstractRedisDao<T> implements AsyncIO<T, T> {
         return promise.future();
     }
 
+    @Override
+    public Replacement replacement(T data) throws IOException {
+        return Replacement.redis(key, codec.encode(mapper, data));
+    }
+
     @Override
     public Future<T> read() {
         Promise<T> promise = Promise.promise();
+        readPayload()
+                .onSuccess(payload -> {
+                    if (payload == null) {
+                        promise.complete(empty());
+                        return;
+                    }
+                    try {
+                        promise.complete(codec.decode(mapper, payload, typeReference()));
+                    } catch (Exception e) {
+                        // Fail rather than hand out an empty value that the next save would persist
+                        logger.error("Deserialization failed", e);
+                        promise.fail(e);
+                    }
+                })
+                .onFailure(promise::fail);
+        return promise.future();
+    }
+
+    /**
+     * Fetches the raw stored bytes, or null if the key does not exist.
+     */
+    protected Future<Buffer> readPayload() {
+        Promise<Buffer> promise = Promise.promise();
         try {
             Redis redisClient = getRedisClient();
             redisClient.connect()
@@ -75,35 +107,25 @@ public abstract class AbstractRedisDao<T> implements AsyncIO<T, T> {
                         redis.get(key)
                                 .onSuccess(res -> {
                                     conn.close();
-                                    if (res != null && res.toString() != null) {
-                                        try {
-                                            T result = mapper.readValue(res.toString(), typeReference());
-                                            promise.complete(result);
-                                        } catch (Exception e) {
-                                            logger.error("Deserialization failed", e);
-                                            promise.complete(empty());
-                                        }
-                                    } else {
-                                        promise.complete(empty());
-                                    }
+                                    promise.complete(res != null ? res.toBuffer() : null);
                                 })
                                 .onFailure(err -> {
                                     logger.error("Redis read failed", err);
                                     conn.close();
-                                    promise.complete(empty());
+                                    promise.fail(err);
                                 });
                     })
                     .onFailure(err -> {
                         logger.error("Redis connection failed", err);
-                        promise.complete(empty());
+                        promise.fail(err);
                     });
         } catch (IllegalStateException e) {
             logger.warn("Redis not initialized", e);
-            promise.complete(empty());
+            promise.fail(e);
         }
         return promise.future();
     }
 
-    // To be implemented by concrete DAO to define fallback (like empty list/set)
+    // To be implemented by concrete DAO to define the value of a key that does not exist yet (like empty list/set)
     protected abstract T empty();
 }
\ No newline at end of file
@@ -2,7 +2,15 @@ package com.shiftmanagerserver.dao;
 
 import io.vertx.core.Future;
 
+import java.io.IOException;
+
 public interface AsyncIO<R, V> {
     Future<Void> write(V data);
     Future<R> read();
+
+    /**
+     * The encoded value and its key, for storing it together with other DAOs' values through
+     * {@link Replacement#commitAll}. Nothing is written until then.
+     */
+    Replacement replacement(V data) throws IOException;
 } 
\ No newline at end of file
@@ -0,0 +1,120 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Guards calls to a remote store. After {@code failureThreshold} consecutive failures the circuit opens
+ * and calls fail immediately. Once {@code openMillis} have passed a single probe call is let through
+ * (half-open); its outcome closes the circuit again or keeps it open for another period.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static class OpenCircuitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenCircuitException(String name) {
+            super("Circuit '" + name + "' is open");
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long callTimeoutMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, long callTimeoutMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.callTimeoutMillis = callTimeoutMillis;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether a call may go through right now. Moves an expired open circuit to half-open and lets the
+     * caller be the probe.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            logger.info("Circuit '{}' half-open, probing", name);
+            return true;
+        }
+        return false;
+    }
+
+    public <T> Future<T> execute(Supplier<Future<T>> call) {
+        if (!allowRequest()) {
+            return Future.failedFuture(new OpenCircuitException(name));
+        }
+        Future<T> result;
+        try {
+            result = withTimeout(call.get());
+        } catch (Exception e) {
+            result = Future.failedFuture(e);
+        }
+        return result.onSuccess(v -> recordSuccess()).onFailure(err -> recordFailure());
+    }
+
+    private synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            logger.info("Circuit '{}' closed", name);
+        }
+    }
+
+    private synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            logger.warn("Circuit '{}' opened after {} consecutive failures", name, consecutiveFailures);
+        }
+    }
+
+    private <T> Future<T> withTimeout(Future<T> future) {
+        Context context = Vertx.currentContext();
+        if (context == null || callTimeoutMillis <= 0) {
+            return future;
+        }
+        Promise<T> promise = Promise.promise();
+        long timer = context.owner().setTimer(callTimeoutMillis,
+                id -> promise.tryFail(new TimeoutException("Call through circuit '" + name + "' timed out after " + callTimeoutMillis + " ms")));
+        future.onComplete(ar -> {
+            context.owner().cancelTimer(timer);
+            if (ar.succeeded()) {
+                promise.tryComplete(ar.result());
+            } else {
+                promise.tryFail(ar.cause());
+            }
+        });
+        return promise.future();
+    }
+}
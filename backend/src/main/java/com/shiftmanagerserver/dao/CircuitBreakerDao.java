@@ -0,0 +1,78 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Puts a {@link CircuitBreaker} in front of a remote DAO.
+ * <p>
+ * Reads that fail, or are refused by an open circuit, are answered from the last value successfully read
+ * or written, so callers keep working on real data instead of an empty fallback. Writes that fail are
+ * reported to the caller, who then keeps its previous state; nothing is acknowledged before it is stored.
+ * A write that timed out may still land, so the next write is only sent once the earlier one has settled.
+ */
+public class CircuitBreakerDao<T> implements AsyncIO<T, T> {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerDao.class);
+    private final AsyncIO<T, T> delegate;
+    private final CircuitBreaker breaker;
+    private final String name;
+    private volatile T snapshot;
+    // The last write sent to the delegate, completed once it settled even if the caller gave up on it
+    private Future<Void> inFlight = Future.succeededFuture();
+
+    public CircuitBreakerDao(AsyncIO<T, T> delegate, CircuitBreaker breaker, String name) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.name = name;
+    }
+
+    @Override
+    public Future<T> read() {
+        return breaker.execute(delegate::read)
+                .map(value -> {
+                    snapshot = value;
+                    return value;
+                })
+                .recover(err -> {
+                    T last = snapshot;
+                    if (last == null) {
+                        return Future.failedFuture(err);
+                    }
+                    logger.warn("Reading {} failed ({}), serving the last known value", name, err.getMessage());
+                    return Future.succeededFuture(last);
+                });
+    }
+
+    @Override
+    public Future<Void> write(T data) {
+        return breaker.execute(() -> {
+            Promise<Void> attempt = Promise.promise();
+            Future<Void> previous;
+            synchronized (this) {
+                previous = inFlight;
+                inFlight = attempt.future();
+            }
+            previous.onComplete(ignored -> delegate.write(data)
+                    .onSuccess(v -> snapshot = data)
+                    .onComplete(attempt));
+            return attempt.future();
+        }).onFailure(err -> logger.warn("Writing {} failed: {}", name, err.getMessage()));
+    }
+
+    /**
+     * Refused while a write is still unsettled, it could land after the replacement and undo it.
+     */
+    @Override
+    public Replacement replacement(T data) throws IOException {
+        synchronized (this) {
+            if (!inFlight.isComplete()) {
+                throw new IllegalStateException("A write of " + name + " hasn't settled yet");
+            }
+        }
+        return delegate.replacement(data).whenCommitted(() -> snapshot = data);
+    }
+}
@@ -0,0 +1,122 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker for the score hash, the counterpart of {@link CircuitBreakerDao}.
+ * <p>
+ * Reads that fail, or are refused by an open circuit, are answered from the scores last read, kept up to date
+ * with every change that was stored. Changes that fail are reported to the caller and never acknowledged
+ * before they are stored. A change that timed out may still land, so the next one is only sent once the
+ * earlier one has settled, and the cache is dropped until the next read as it can no longer be trusted.
+ */
+public class CircuitBreakerUserScoreDao implements UserScoreDao {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerUserScoreDao.class);
+    private final UserScoreDao delegate;
+    private final CircuitBreaker breaker;
+    private Map<String, Integer> cached;
+    // The last change sent to the delegate, completed once it settled even if the caller gave up on it
+    private Future<?> inFlight = Future.succeededFuture();
+
+    public CircuitBreakerUserScoreDao(UserScoreDao delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Future<Map<String, Integer>> readScores() {
+        return breaker.execute(delegate::readScores)
+                .map(scores -> {
+                    synchronized (this) {
+                        if (inFlight.isComplete()) {
+                            cached = new HashMap<>(scores);
+                        }
+                    }
+                    return scores;
+                })
+                .recover(err -> {
+                    synchronized (this) {
+                        if (cached == null) {
+                            return Future.failedFuture(err);
+                        }
+                        logger.warn("Reading user scores failed ({}), serving the last known scores", err.getMessage());
+                        return Future.succeededFuture(new HashMap<>(cached));
+                    }
+                });
+    }
+
+    @Override
+    public Future<Map<String, Integer>> applyDeltas(Map<String, Integer> deltas) {
+        return change(() -> delegate.applyDeltas(deltas), (current, result) -> current.putAll(result));
+    }
+
+    @Override
+    public Future<Void> writeScores(Map<String, Integer> scores) {
+        return change(() -> delegate.writeScores(scores), (current, v) -> current.putAll(scores));
+    }
+
+    @Override
+    public Future<Void> seedScores(Map<String, Integer> scores) {
+        return change(() -> delegate.seedScores(scores), (current, v) -> scores.forEach(current::putIfAbsent));
+    }
+
+    @Override
+    public Future<Void> removeScore(String username) {
+        return change(() -> delegate.removeScore(username), (current, v) -> current.remove(username));
+    }
+
+    /**
+     * Refused while a change is still unsettled, it could land after the replacement and undo it.
+     */
+    @Override
+    public Replacement replacement(Map<String, Integer> scores) throws IOException {
+        synchronized (this) {
+            if (!inFlight.isComplete()) {
+                throw new IllegalStateException("A user score change hasn't settled yet");
+            }
+        }
+        return delegate.replacement(scores).whenCommitted(() -> {
+            synchronized (this) {
+                cached = new HashMap<>(scores);
+            }
+        });
+    }
+
+    private <R> Future<R> change(Supplier<Future<R>> operation, BiConsumer<Map<String, Integer>, R> update) {
+        return breaker.execute(() -> {
+            Promise<R> attempt = Promise.promise();
+            Future<?> previous;
+            synchronized (this) {
+                previous = inFlight;
+                inFlight = attempt.future();
+            }
+            previous.onComplete(ignored -> operation.get()
+                    .onSuccess(result -> {
+                        synchronized (this) {
+                            if (cached != null) {
+                                update.accept(cached, result);
+                            }
+                        }
+                    })
+                    .onComplete(attempt));
+            return attempt.future();
+        }).onFailure(err -> {
+            if (err instanceof TimeoutException) {
+                synchronized (this) {
+                    cached = null;
+                }
+            }
+            logger.warn("Changing user scores failed: {}", err.getMessage());
+        });
+    }
+}
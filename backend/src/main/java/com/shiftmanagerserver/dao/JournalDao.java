@@ -0,0 +1,27 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.List;
+
+/**
+ * Append-only change journal. Entries are numbered by a sequence without gaps and only the newest
+ * {@code retention} entries are kept.
+ */
+public interface JournalDao {
+    /**
+     * The sequence of the newest entry, 0 while the journal is empty.
+     */
+    Future<Long> lastSeq();
+
+    /**
+     * Appends the entry numbered {@code seq}, which must follow the newest one.
+     */
+    Future<Void> append(long seq, Buffer entry);
+
+    /**
+     * The entries after {@code seq} in order, or null when some of them have already been dropped.
+     */
+    Future<List<Buffer>> readAfter(long seq);
+}
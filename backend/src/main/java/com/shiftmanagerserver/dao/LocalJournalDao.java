@@ -0,0 +1,79 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the journal in the embedded {@link LocalLogStore}, one key per entry plus a key holding the range of
+ * sequences kept. An append writes the entry, the new range and drops the oldest entry in one batch.
+ */
+public class LocalJournalDao implements JournalDao {
+    private final LocalLogStore store;
+    private final String prefix;
+    private final String rangeKey;
+    private final int retention;
+
+    public LocalJournalDao(LocalLogStore store, String prefix, int retention) {
+        this.store = store;
+        this.prefix = prefix + ":journal:";
+        this.rangeKey = prefix + ":journal:range";
+        this.retention = retention;
+    }
+
+    @Override
+    public Future<Long> lastSeq() {
+        return range().map(range -> range[1]);
+    }
+
+    @Override
+    public Future<Void> append(long seq, Buffer entry) {
+        return range().compose(range -> {
+            long first = range[1] == 0 ? seq : range[0];
+            Map<String, byte[]> batch = new LinkedHashMap<>();
+            batch.put(prefix + seq, entry.getBytes());
+            while (seq - first + 1 > retention) {
+                batch.put(prefix + first, null);
+                first++;
+            }
+            batch.put(rangeKey, (first + ":" + seq).getBytes(StandardCharsets.UTF_8));
+            return store.write(batch);
+        });
+    }
+
+    @Override
+    public Future<List<Buffer>> readAfter(long seq) {
+        return range().compose(range -> {
+            if (range[1] > seq && seq + 1 < range[0]) {
+                return Future.succeededFuture(null);
+            }
+            List<Future<Buffer>> reads = new ArrayList<>();
+            for (long next = seq + 1; next <= range[1]; next++) {
+                reads.add(store.get(prefix + next));
+            }
+            return Future.all(reads).map(all -> {
+                List<Buffer> entries = new ArrayList<>(reads.size());
+                for (Future<Buffer> read : reads) {
+                    entries.add(read.result());
+                }
+                return entries;
+            });
+        });
+    }
+
+    // {first, last}, {0, 0} while empty
+    private Future<long[]> range() {
+        return store.get(rangeKey).map(value -> {
+            if (value == null) {
+                return new long[]{0, 0};
+            }
+            String[] parts = value.toString(StandardCharsets.UTF_8).split(":");
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package com.shiftmanagerserver.dao;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+import java.util.function.Supplier;
+
+/**
+ * Stores a value under one key of the embedded {@link LocalLogStore}, encoded the same way as in Redis.
+ */
+public class LocalLogDao<T> implements AsyncIO<T, T> {
+    private static final Logger logger = LoggerFactory.getLogger(LocalLogDao.class);
+    private final LocalLogStore store;
+    private final ObjectMapper mapper;
+    private final PayloadCodec codec;
+    private final String key;
+    private final TypeReference<T> typeReference;
+    private final Supplier<T> empty;
+
+    public LocalLogDao(LocalLogStore store, ObjectMapper mapper, PayloadCodec codec, String key,
+                       TypeReference<T> typeReference, Supplier<T> empty) {
+        this.store = store;
+        this.mapper = mapper;
+        this.codec = codec;
+        this.key = key;
+        this.typeReference = typeReference;
+        this.empty = empty;
+    }
+
+    @Override
+    public Future<Void> write(T data) {
+        try {
+            return store.put(key, codec.encode(mapper, data))
+                    .onSuccess(v -> logger.info("Saved data to local store with key: {}", key))
+                    .onFailure(err -> logger.error("Local store write failed", err));
+        } catch (Exception e) {
+            logger.error("Serialization failed", e);
+            return Future.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Replacement replacement(T data) throws IOException {
+        return Replacement.local(store, key, codec.encode(mapper, data));
+    }
+
+    @Override
+    public Future<T> read() {
+        Promise<T> promise = Promise.promise();
+        store.get(key)
+                .onSuccess(payload -> {
+                    if (payload == null) {
+                        promise.complete(empty.get());
+                        return;
+                    }
+                    try {
+                        promise.complete(codec.decode(mapper, payload, typeReference));
+                    } catch (Exception e) {
+                        logger.error("Deserialization failed", e);
+                        promise.fail(e);
+                    }
+                })
+                .onFailure(err -> {
+                    logger.error("Local store read failed", err);
+                    promise.fail(err);
+                });
+        return promise.future();
+    }
+}
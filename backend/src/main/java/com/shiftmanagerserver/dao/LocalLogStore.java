@@ -0,0 +1,301 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded key-value store backed by a single append-only log file.
+ * <p>
+ * Every write is a batch record: {@code length | crc32 | entry count | entries}, where an entry is
+ * {@code key length | key | value length | value} (a value length of -1 deletes the key). A batch is
+ * applied all or nothing. Writes are queued and a single commit thread appends everything that is
+ * waiting with one write and one fsync (group commit) before acknowledging the callers.
+ * <p>
+ * On open the log is memory-mapped and replayed into an in-memory index; a torn or corrupt tail left by
+ * a crash is cut off. When the log grows well past the live data it is compacted into a new file holding
+ * one entry per key, which then atomically replaces the old log.
+ */
+public class LocalLogStore {
+    private static final Logger logger = LoggerFactory.getLogger(LocalLogStore.class);
+    private static final String LOG_FILE = "store.log";
+    private static final String COMPACT_FILE = "store.log.compact";
+    private static final int RECORD_HEADER = 8;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final int COMPACTION_FACTOR = 4;
+
+    private final Path directory;
+    private final Map<String, byte[]> index = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingBatch> queue = new LinkedBlockingQueue<>();
+    private FileChannel channel;
+    private long logSize;
+    private volatile boolean opened;
+
+    private record PendingBatch(Map<String, byte[]> entries, Promise<Void> promise, Context context) {
+    }
+
+    public LocalLogStore(Path directory) {
+        this.directory = directory;
+    }
+
+    private synchronized void ensureOpen() {
+        if (opened) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Files.deleteIfExists(directory.resolve(COMPACT_FILE));
+            channel = FileChannel.open(directory.resolve(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open local store in " + directory, e);
+        }
+        Thread committer = new Thread(this::commitLoop, "local-store-commit");
+        committer.setDaemon(true);
+        committer.start();
+        opened = true;
+        logger.info("Local store opened in {} with {} keys", directory, index.size());
+    }
+
+    public Future<Buffer> get(String key) {
+        try {
+            ensureOpen();
+        } catch (IllegalStateException e) {
+            return Future.failedFuture(e);
+        }
+        byte[] value = index.get(key);
+        return Future.succeededFuture(value != null ? Buffer.buffer(value) : null);
+    }
+
+    public Future<Void> put(String key, Buffer value) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(key, value.getBytes());
+        return write(entries);
+    }
+
+    public Future<Void> delete(String key) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(key, null);
+        return write(entries);
+    }
+
+    /**
+     * Writes several keys atomically. A null value deletes the key.
+     */
+    public Future<Void> write(Map<String, byte[]> entries) {
+        try {
+            ensureOpen();
+        } catch (IllegalStateException e) {
+            return Future.failedFuture(e);
+        }
+        Promise<Void> promise = Promise.promise();
+        queue.add(new PendingBatch(entries, promise, Vertx.currentContext()));
+        return promise.future();
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        long validEnd = 0;
+        if (size > 0) {
+            MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            while (log.remaining() >= RECORD_HEADER) {
+                int start = log.position();
+                int length = log.getInt();
+                int crc = log.getInt();
+                if (length < 4 || length > log.remaining()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                log.get(body);
+                if (crc(body) != crc) {
+                    break;
+                }
+                applyBatch(ByteBuffer.wrap(body));
+                validEnd = start + RECORD_HEADER + length;
+            }
+        }
+        if (validEnd < size) {
+            logger.warn("Discarding {} bytes of incomplete or corrupt log tail in {}", size - validEnd, directory);
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        logSize = validEnd;
+        channel.position(validEnd);
+    }
+
+    private void applyBatch(ByteBuffer body) {
+        int count = body.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] keyBytes = new byte[body.getShort()];
+            body.get(keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            int valueLength = body.getInt();
+            if (valueLength < 0) {
+                index.remove(key);
+            } else {
+                byte[] value = new byte[valueLength];
+                body.get(value);
+                index.put(key, value);
+            }
+        }
+    }
+
+    private void commitLoop() {
+        List<PendingBatch> batches = new ArrayList<>();
+        while (true) {
+            try {
+                batches.add(queue.take());
+                queue.drainTo(batches);
+                commit(batches);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Local store commit failed", e);
+                batches.forEach(batch -> complete(batch, e));
+            }
+            batches.clear();
+        }
+    }
+
+    private void commit(List<PendingBatch> batches) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>(batches.size());
+        long bytes = 0;
+        for (PendingBatch batch : batches) {
+            ByteBuffer record = encode(batch.entries());
+            bytes += record.remaining();
+            records.add(record);
+        }
+        ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+        try {
+            long written = 0;
+            while (written < bytes) {
+                written += channel.write(buffers);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Drop the partial write so later records are not appended after a torn one
+            channel.truncate(logSize);
+            channel.position(logSize);
+            throw e;
+        }
+        logSize += bytes;
+        for (PendingBatch batch : batches) {
+            batch.entries().forEach((key, value) -> {
+                if (value == null) {
+                    index.remove(key);
+                } else {
+                    index.put(key, value);
+                }
+            });
+            complete(batch, null);
+        }
+        try {
+            maybeCompact();
+        } catch (IOException e) {
+            logger.error("Local store compaction failed, keeping the current log", e);
+            if (!channel.isOpen()) {
+                channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel.position(channel.size());
+                logSize = channel.size();
+            }
+        }
+    }
+
+    private void maybeCompact() throws IOException {
+        long liveBytes = 0;
+        for (Map.Entry<String, byte[]> entry : index.entrySet()) {
+            liveBytes += entry.getKey().length() + entry.getValue().length;
+        }
+        if (logSize < MIN_COMPACTION_SIZE || logSize < liveBytes * COMPACTION_FACTOR) {
+            return;
+        }
+        Path compactPath = directory.resolve(COMPACT_FILE);
+        ByteBuffer snapshot = encode(new LinkedHashMap<>(index));
+        long snapshotSize = snapshot.remaining();
+        try (FileChannel compacted = FileChannel.open(compactPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (snapshot.hasRemaining()) {
+                compacted.write(snapshot);
+            }
+            compacted.force(true);
+        }
+        channel.close();
+        Files.move(compactPath, directory.resolve(LOG_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        logger.info("Compacted local store log from {} to {} bytes", logSize, snapshotSize);
+        logSize = snapshotSize;
+    }
+
+    private static ByteBuffer encode(Map<String, byte[]> entries) {
+        int bodyLength = 4;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            bodyLength += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 4
+                    + (entry.getValue() != null ? entry.getValue().length : 0);
+        }
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.putInt(entries.size());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            byte[] keyBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            body.putShort((short) keyBytes.length);
+            body.put(keyBytes);
+            if (entry.getValue() == null) {
+                body.putInt(-1);
+            } else {
+                body.putInt(entry.getValue().length);
+                body.put(entry.getValue());
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + bodyLength);
+        record.putInt(bodyLength);
+        record.putInt(crc(body.array()));
+        record.put(body.array());
+        record.flip();
+        return record;
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static void complete(PendingBatch batch, Throwable failure) {
+        Runnable completion = () -> {
+            if (failure == null) {
+                batch.promise().tryComplete();
+            } else {
+                batch.promise().tryFail(failure);
+            }
+        };
+        if (batch.context() != null) {
+            batch.context().runOnContext(v -> completion.run());
+        } else {
+            completion.run();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.shiftmanagerserver.dao;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * User scores kept in the embedded {@link LocalLogStore}. Deltas are applied under a lock to an in-memory
+ * copy and the resulting map is queued for commit, so concurrent updates are never lost.
+ */
+public class LocalUserScoreDao implements UserScoreDao {
+    private static final Logger logger = LoggerFactory.getLogger(LocalUserScoreDao.class);
+    private final LocalLogStore store;
+    private final ObjectMapper mapper;
+    private final PayloadCodec codec;
+    private final String key;
+    private Map<String, Integer> scores;
+
+    public LocalUserScoreDao(LocalLogStore store, ObjectMapper mapper, PayloadCodec codec, String prefix) {
+        this.store = store;
+        this.mapper = mapper;
+        this.codec = codec;
+        this.key = prefix + ":user_scores";
+    }
+
+    @Override
+    public Future<Map<String, Integer>> readScores() {
+        return loaded().map(current -> {
+            synchronized (this) {
+                return new HashMap<>(current);
+            }
+        });
+    }
+
+    @Override
+    public Future<Map<String, Integer>> applyDeltas(Map<String, Integer> deltas) {
+        return update(current -> {
+            Map<String, Integer> result = new HashMap<>();
+            deltas.forEach((username, delta) -> {
+                int score = current.getOrDefault(username, 0) + delta;
+                if (delta < 0 && score < 0) {
+                    score = 0;
+                }
+                current.put(username, score);
+                result.put(username, score);
+            });
+            return result;
+        });
+    }
+
+    @Override
+    public Future<Void> writeScores(Map<String, Integer> newScores) {
+        return update(current -> {
+            current.putAll(newScores);
+            return null;
+        }).mapEmpty();
+    }
+
+    @Override
+    public Future<Void> seedScores(Map<String, Integer> newScores) {
+        return update(current -> {
+            newScores.forEach(current::putIfAbsent);
+            return null;
+        }).mapEmpty();
+    }
+
+    @Override
+    public Future<Void> removeScore(String username) {
+        return update(current -> {
+            current.remove(username);
+            return null;
+        }).mapEmpty();
+    }
+
+    @Override
+    public Replacement replacement(Map<String, Integer> newScores) throws IOException {
+        return Replacement.local(store, key, codec.encode(mapper, newScores)).whenCommitted(() -> {
+            synchronized (this) {
+                scores = new HashMap<>(newScores);
+            }
+        });
+    }
+
+    private <R> Future<R> update(Function<Map<String, Integer>, R> change) {
+        return loaded().compose(current -> {
+            synchronized (this) {
+                R result = change.apply(current);
+                try {
+                    Buffer payload = codec.encode(mapper, current);
+                    return store.put(key, payload).map(result);
+                } catch (Exception e) {
+                    logger.error("Serialization failed", e);
+                    return Future.failedFuture(e);
+                }
+            }
+        });
+    }
+
+    private Future<Map<String, Integer>> loaded() {
+        if (scores != null) {
+            return Future.succeededFuture(scores);
+        }
+        return store.get(key).compose(payload -> {
+            synchronized (this) {
+                if (scores == null) {
+                    Map<String, Integer> loaded = new HashMap<>();
+                    if (payload != null) {
+                        try {
+                            loaded.putAll(codec.decode(mapper, payload, new TypeReference<Map<String, Integer>>() {}));
+                        } catch (Exception e) {
+                            logger.error("Deserialization failed", e);
+                            return Future.failedFuture(e);
+                        }
+                    }
+                    scores = loaded;
+                }
+                return Future.succeededFuture(scores);
+            }
+        });
+    }
+}
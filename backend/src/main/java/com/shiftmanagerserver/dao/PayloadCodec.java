@@ -0,0 +1,143 @@
+package com.shiftmanagerserver.dao;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes the values stored by the DAOs.
+ * <p>
+ * Encoded payloads start with a small header (marker, version, format, compression) so the format can
+ * change without migrating existing keys. Payloads without the header are plain JSON as written by
+ * older versions and are always readable. Plain uncompressed JSON is still written without a header.
+ */
+public class PayloadCodec {
+    private static final byte MARKER = 0x00; // can never start a JSON document
+    private static final byte MAGIC_1 = 'S';
+    private static final byte MAGIC_2 = 'M';
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 6;
+
+    public enum Format {
+        JSON(1), CBOR(2);
+
+        private final byte id;
+
+        Format(int id) {
+            this.id = (byte) id;
+        }
+
+        static Format fromId(byte id) {
+            for (Format format : values()) {
+                if (format.id == id) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown payload format: " + id);
+        }
+    }
+
+    public enum Compression {
+        NONE(0), DEFLATE(1);
+
+        private final byte id;
+
+        Compression(int id) {
+            this.id = (byte) id;
+        }
+
+        static Compression fromId(byte id) {
+            for (Compression compression : values()) {
+                if (compression.id == id) {
+                    return compression;
+                }
+            }
+            throw new IllegalArgumentException("Unknown payload compression: " + id);
+        }
+    }
+
+    private final Format format;
+    private final Compression compression;
+    private final Map<ObjectMapper, ObjectMapper> cborMappers = new ConcurrentHashMap<>();
+
+    public PayloadCodec(Format format, Compression compression) {
+        this.format = format;
+        this.compression = compression;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Buffer encode(ObjectMapper mapper, Object value) throws IOException {
+        if (format == Format.JSON && compression == Compression.NONE) {
+            return Buffer.buffer(mapper.writeValueAsBytes(value));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[]{MARKER, MAGIC_1, MAGIC_2, VERSION, format.id, compression.id});
+        OutputStream out = compression == Compression.DEFLATE
+                ? new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED))
+                : bytes;
+        mapperFor(mapper, format).writeValue(out, value);
+        out.close();
+        return Buffer.buffer(bytes.toByteArray());
+    }
+
+    public <T> T decode(ObjectMapper mapper, Buffer payload, TypeReference<T> type) throws IOException {
+        try (JsonParser parser = createParser(mapper, payload)) {
+            return parser.getCodec().readValue(parser, type);
+        }
+    }
+
+    /**
+     * Creates a streaming parser that reads straight from the payload bytes, without decoding them into a
+     * String first. The parser's codec is the mapper matching the payload format.
+     */
+    public JsonParser createParser(ObjectMapper mapper, Buffer payload) throws IOException {
+        byte[] bytes = payload.getBytes();
+        if (!hasHeader(bytes)) {
+            return mapper.getFactory().createParser(bytes);
+        }
+        byte version = bytes[3];
+        if (version != VERSION) {
+            throw new IOException("Unsupported payload version: " + version);
+        }
+        Format payloadFormat = Format.fromId(bytes[4]);
+        Compression payloadCompression = Compression.fromId(bytes[5]);
+        int length = bytes.length - HEADER_LENGTH;
+        if (payloadCompression == Compression.DEFLATE) {
+            InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes, HEADER_LENGTH, length));
+            return mapperFor(mapper, payloadFormat).getFactory().createParser(in);
+        }
+        return mapperFor(mapper, payloadFormat).getFactory().createParser(bytes, HEADER_LENGTH, length);
+    }
+
+    private static boolean hasHeader(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MARKER && bytes[1] == MAGIC_1 && bytes[2] == MAGIC_2;
+    }
+
+    private ObjectMapper mapperFor(ObjectMapper mapper, Format payloadFormat) {
+        if (payloadFormat == Format.JSON) {
+            return mapper;
+        }
+        // Keeps the configuration and mix-ins of the DAO's mapper
+        return cborMappers.computeIfAbsent(mapper, m -> m.copyWith(new CBORFactory()));
+    }
+}
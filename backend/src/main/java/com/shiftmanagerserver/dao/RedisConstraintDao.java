@@ -12,8 +12,8 @@ import java.util.List;
 
 public class RedisConstraintDao extends AbstractRedisDao<List<Constraint>> {
     @Inject
-    public RedisConstraintDao(ObjectMapper mapper, @Named("redis.key.prefix") String prefix) {
-        super(mapper, prefix + ":constraints", LoggerFactory.getLogger(RedisConstraintDao.class));
+    public RedisConstraintDao(ObjectMapper mapper, PayloadCodec codec, @Named("redis.key.prefix") String prefix) {
+        super(mapper, codec, prefix + ":constraints", LoggerFactory.getLogger(RedisConstraintDao.class));
     }
 
     @Override
@@ -0,0 +1,107 @@
+package com.shiftmanagerserver.dao;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the journal in a Redis list next to a key holding the newest sequence. Both are only changed
+ * together by a script, so the sequence of every list element follows from its position.
+ */
+public class RedisJournalDao implements JournalDao {
+    private static final Logger logger = LoggerFactory.getLogger(RedisJournalDao.class);
+
+    // ARGV: seq, entry, retention
+    private static final String APPEND_SCRIPT = """
+            redis.call('RPUSH', KEYS[1], ARGV[2])
+            redis.call('SET', KEYS[2], ARGV[1])
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[3]), -1)
+            return 1
+            """;
+
+    // ARGV: seq. Returns false when entries after seq were already trimmed.
+    private static final String READ_AFTER_SCRIPT = """
+            local last = tonumber(redis.call('GET', KEYS[2]) or '0')
+            local first = last - redis.call('LLEN', KEYS[1]) + 1
+            local start = tonumber(ARGV[1]) + 1
+            if start < first then
+                return false
+            end
+            return redis.call('LRANGE', KEYS[1], start - first, -1)
+            """;
+
+    private final String listKey;
+    private final String lastKey;
+    private final int retention;
+
+    @Inject
+    public RedisJournalDao(@Named("redis.key.prefix") String prefix, @Named("journal.retention") int retention) {
+        this.listKey = prefix + ":journal";
+        this.lastKey = prefix + ":journal:last";
+        this.retention = retention;
+    }
+
+    @Override
+    public Future<Long> lastSeq() {
+        return send(Request.cmd(Command.GET).arg(lastKey))
+                .map(res -> res != null ? res.toLong() : 0L);
+    }
+
+    @Override
+    public Future<Void> append(long seq, Buffer entry) {
+        return send(Request.cmd(Command.EVAL).arg(APPEND_SCRIPT).arg(2).arg(listKey).arg(lastKey)
+                .arg(seq).arg(entry).arg(retention))
+                .mapEmpty();
+    }
+
+    @Override
+    public Future<List<Buffer>> readAfter(long seq) {
+        return send(Request.cmd(Command.EVAL).arg(READ_AFTER_SCRIPT).arg(2).arg(listKey).arg(lastKey).arg(seq))
+                .map(res -> {
+                    if (res == null) {
+                        return null;
+                    }
+                    List<Buffer> entries = new ArrayList<>(res.size());
+                    for (Response element : res) {
+                        entries.add(element.toBuffer());
+                    }
+                    return entries;
+                });
+    }
+
+    private Future<Response> send(Request request) {
+        Promise<Response> promise = Promise.promise();
+        Redis redisClient = RedisConfig.getRedisClient();
+        if (redisClient == null) {
+            promise.fail(new IllegalStateException("Redis client not initialized."));
+            return promise.future();
+        }
+        redisClient.connect()
+                .onSuccess(conn -> conn.send(request)
+                        .onSuccess(res -> {
+                            conn.close();
+                            promise.complete(res);
+                        })
+                        .onFailure(err -> {
+                            logger.error("Redis journal command failed", err);
+                            conn.close();
+                            promise.fail(err);
+                        }))
+                .onFailure(err -> {
+                    logger.error("Redis connection failed", err);
+                    promise.fail(err);
+                });
+        return promise.future();
+    }
+}
@@ -10,9 +10,9 @@ import org.slf4j.LoggerFactory;
 public class RedisShiftWeightSettingsDao extends AbstractRedisDao<ShiftWeightSettings> {
 
     @Inject
-    public RedisShiftWeightSettingsDao(ObjectMapper mapper,
+    public RedisShiftWeightSettingsDao(ObjectMapper mapper, PayloadCodec codec,
                                        @Named("redis.key.prefix") String prefix) {
-        super(mapper, prefix + ":shift_weight_settings", LoggerFactory.getLogger(RedisShiftWeightSettingsDao.class));
+        super(mapper, codec, prefix + ":shift_weight_settings", LoggerFactory.getLogger(RedisShiftWeightSettingsDao.class));
     }
 
     @Override
@@ -1,4 +1,5 @@
 package com.shiftmanagerserver.dao;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
@@ -12,8 +13,20 @@ import java.util.List;
 public class RedisShiftsDao extends AbstractRedisDao<List<AssignedShift>> {
 
     @Inject
-    public RedisShiftsDao(ObjectMapper mapper, @Named("redis.key.prefix") String prefix) {
-        super(mapper, prefix + ":shifts", LoggerFactory.getLogger(RedisShiftsDao.class));
+    public RedisShiftsDao(ObjectMapper mapper, PayloadCodec codec, @Named("redis.key.prefix") String prefix) {
+        super(storageMapper(mapper), codec, prefix + ":shifts", LoggerFactory.getLogger(RedisShiftsDao.class));
+    }
+
+    /**
+     * Shifts are stored with a reference to their preset (name and version) instead of a copy of it.
+     * Embedded presets are still accepted when reading shifts written by older versions.
+     */
+    public static ObjectMapper storageMapper(ObjectMapper mapper) {
+        return mapper.copy().addMixIn(AssignedShift.class, StoredAssignedShift.class);
+    }
+
+    @JsonIgnoreProperties(value = "preset", allowSetters = true)
+    private abstract static class StoredAssignedShift {
     }
 
     @Override
@@ -12,8 +12,8 @@ import java.util.Set;
 
 public class RedisUserDao extends AbstractRedisDao<Set<User>> {
     @Inject
-    public RedisUserDao(ObjectMapper mapper, @Named("redis.key.prefix") String prefix) {
-        super(mapper, prefix + ":users", LoggerFactory.getLogger(RedisUserDao.class));
+    public RedisUserDao(ObjectMapper mapper, PayloadCodec codec, @Named("redis.key.prefix") String prefix) {
+        super(mapper, codec, prefix + ":users", LoggerFactory.getLogger(RedisUserDao.class));
     }
 
     @Override
@@ -0,0 +1,155 @@
+package com.shiftmanagerserver.dao;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisAPI;
+import io.vertx.redis.client.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps user scores in a Redis hash (username -> score) so a score change is a single
+ * atomic server-side update instead of a rewrite of the whole user set.
+ */
+public class RedisUserScoreDao implements UserScoreDao {
+    private static final Logger logger = LoggerFactory.getLogger(RedisUserScoreDao.class);
+
+    // ARGV holds (username, delta) pairs. Returns the resulting (username, score) pairs.
+    private static final String APPLY_DELTAS_SCRIPT = """
+            local result = {}
+            for i = 1, #ARGV, 2 do
+                local delta = tonumber(ARGV[i + 1])
+                local score = redis.call('HINCRBY', KEYS[1], ARGV[i], delta)
+                if delta < 0 and score < 0 then
+                    redis.call('HSET', KEYS[1], ARGV[i], 0)
+                    score = 0
+                end
+                result[#result + 1] = ARGV[i]
+                result[#result + 1] = score
+            end
+            return result
+            """;
+
+    // ARGV holds (username, score) pairs, only missing fields are written.
+    private static final String SEED_SCRIPT = """
+            for i = 1, #ARGV, 2 do
+                redis.call('HSETNX', KEYS[1], ARGV[i], ARGV[i + 1])
+            end
+            return 1
+            """;
+
+    private final String key;
+
+    @Inject
+    public RedisUserScoreDao(@Named("redis.key.prefix") String prefix) {
+        this.key = prefix + ":user_scores";
+    }
+
+    @Override
+    public Future<Map<String, Integer>> readScores() {
+        return execute(redis -> redis.hgetall(key)).map(res -> {
+            Map<String, Integer> scores = new HashMap<>();
+            if (res != null) {
+                for (String username : res.getKeys()) {
+                    scores.put(username, res.get(username).toInteger());
+                }
+            }
+            return scores;
+        });
+    }
+
+    @Override
+    public Future<Map<String, Integer>> applyDeltas(Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return Future.succeededFuture(new HashMap<>());
+        }
+        return execute(redis -> redis.eval(scriptArgs(APPLY_DELTAS_SCRIPT, deltas))).map(res -> {
+            Map<String, Integer> scores = new HashMap<>();
+            for (int i = 0; i + 1 < res.size(); i += 2) {
+                scores.put(res.get(i).toString(), res.get(i + 1).toInteger());
+            }
+            logger.info("Applied {} score deltas in Redis", deltas.size());
+            return scores;
+        });
+    }
+
+    @Override
+    public Future<Void> writeScores(Map<String, Integer> scores) {
+        if (scores.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        List<String> args = new ArrayList<>();
+        args.add(key);
+        scores.forEach((username, score) -> {
+            args.add(username);
+            args.add(String.valueOf(score));
+        });
+        return execute(redis -> redis.hset(args)).mapEmpty();
+    }
+
+    @Override
+    public Future<Void> seedScores(Map<String, Integer> scores) {
+        if (scores.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        return execute(redis -> redis.eval(scriptArgs(SEED_SCRIPT, scores))).mapEmpty();
+    }
+
+    @Override
+    public Future<Void> removeScore(String username) {
+        return execute(redis -> redis.hdel(List.of(key, username))).mapEmpty();
+    }
+
+    @Override
+    public Replacement replacement(Map<String, Integer> scores) {
+        Map<String, String> fields = new HashMap<>();
+        scores.forEach((username, score) -> fields.put(username, String.valueOf(score)));
+        return Replacement.redisHash(key, fields);
+    }
+
+    private List<String> scriptArgs(String script, Map<String, Integer> pairs) {
+        List<String> args = new ArrayList<>();
+        args.add(script);
+        args.add("1");
+        args.add(key);
+        pairs.forEach((username, value) -> {
+            args.add(username);
+            args.add(String.valueOf(value));
+        });
+        return args;
+    }
+
+    private Future<Response> execute(Function<RedisAPI, Future<Response>> command) {
+        Promise<Response> promise = Promise.promise();
+        Redis redisClient = RedisConfig.getRedisClient();
+        if (redisClient == null) {
+            promise.fail(new IllegalStateException("Redis client not initialized."));
+            return promise.future();
+        }
+        redisClient.connect()
+                .onSuccess(conn -> command.apply(RedisAPI.api(conn))
+                        .onSuccess(res -> {
+                            conn.close();
+                            promise.complete(res);
+                        })
+                        .onFailure(err -> {
+                            logger.error("Redis score command failed", err);
+                            conn.close();
+                            promise.fail(err);
+                        }))
+                .onFailure(err -> {
+                    logger.error("Redis connection failed", err);
+                    promise.fail(err);
+                });
+        return promise.future();
+    }
+}
@@ -0,0 +1,169 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisConnection;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.ResponseType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A new encoded value for one DAO's key, to be stored together with others by {@link #commitAll}: readers of the
+ * store see either all old values or all new ones. {@code store} is the local store holding the key, or null
+ * for Redis. A Redis hash is replaced by {@code hash} instead of {@code payload}.
+ */
+public record Replacement(String key, Buffer payload, Map<String, String> hash, LocalLogStore store, Runnable committed) {
+    private static final Logger logger = LoggerFactory.getLogger(Replacement.class);
+    private static final String STAGING_SUFFIX = ":restore";
+
+    public static Replacement redis(String key, Buffer payload) {
+        return new Replacement(key, payload, null, null, () -> {});
+    }
+
+    public static Replacement redisHash(String key, Map<String, String> fields) {
+        return new Replacement(key, null, fields, null, () -> {});
+    }
+
+    public static Replacement local(LocalLogStore store, String key, Buffer payload) {
+        return new Replacement(key, payload, null, store, () -> {});
+    }
+
+    /**
+     * The same replacement, also running {@code then} once it is stored.
+     */
+    public Replacement whenCommitted(Runnable then) {
+        return new Replacement(key, payload, hash, store, () -> {
+            committed.run();
+            then.run();
+        });
+    }
+
+    /**
+     * Stores all replacements. In Redis the values are first written to staging keys in one pipeline, then
+     * renamed over the live keys in a single MULTI/EXEC, so a failed upload never touches the live keys. The
+     * staging keys are deleted whenever the swap fails, also when a command inside the transaction did; the
+     * failure then names the keys that were replaced regardless. Local
+     * values are written as one batch of the log store. Atomicity holds per storage backend; when entities are
+     * split between Redis and the local store, Redis is committed first.
+     */
+    public static Future<Void> commitAll(List<Replacement> replacements) {
+        List<Replacement> redis = new ArrayList<>();
+        Map<LocalLogStore, List<Replacement>> local = new IdentityHashMap<>();
+        for (Replacement replacement : replacements) {
+            if (replacement.store() == null) {
+                redis.add(replacement);
+            } else {
+                local.computeIfAbsent(replacement.store(), s -> new ArrayList<>()).add(replacement);
+            }
+        }
+        Future<Void> result = redis.isEmpty() ? Future.succeededFuture() : commitRedis(redis);
+        for (Map.Entry<LocalLogStore, List<Replacement>> entry : local.entrySet()) {
+            result = result.compose(v -> commitLocal(entry.getKey(), entry.getValue()));
+        }
+        return result.onSuccess(v -> replacements.forEach(replacement -> replacement.committed().run()));
+    }
+
+    private static Future<Void> commitLocal(LocalLogStore store, List<Replacement> replacements) {
+        Map<String, byte[]> entries = new HashMap<>();
+        for (Replacement replacement : replacements) {
+            entries.put(replacement.key(), replacement.payload().getBytes());
+        }
+        return store.write(entries);
+    }
+
+    private static Future<Void> commitRedis(List<Replacement> replacements) {
+        Redis client = RedisConfig.getRedisClient();
+        if (client == null) {
+            return Future.failedFuture(new IllegalStateException("Redis client not initialized."));
+        }
+        List<Request> stage = new ArrayList<>();
+        List<Request> swap = new ArrayList<>();
+        // The live key each swap command replaces, in the order of the EXEC reply
+        List<String> swapped = new ArrayList<>();
+        swap.add(Request.cmd(Command.MULTI));
+        for (Replacement replacement : replacements) {
+            String staging = replacement.key() + STAGING_SUFFIX;
+            if (replacement.hash() == null) {
+                stage.add(Request.cmd(Command.SET).arg(staging).arg(replacement.payload()));
+            } else if (replacement.hash().isEmpty()) {
+                // Redis has no empty hashes
+                swap.add(Request.cmd(Command.DEL).arg(replacement.key()));
+                swapped.add(replacement.key());
+                continue;
+            } else {
+                // A staging hash left over from a failed replace would keep its fields
+                stage.add(Request.cmd(Command.DEL).arg(staging));
+                Request hset = Request.cmd(Command.HSET).arg(staging);
+                replacement.hash().forEach((field, value) -> hset.arg(field).arg(value));
+                stage.add(hset);
+            }
+            swap.add(Request.cmd(Command.RENAME).arg(staging).arg(replacement.key()));
+            swapped.add(replacement.key());
+        }
+        swap.add(Request.cmd(Command.EXEC));
+
+        Promise<Void> promise = Promise.promise();
+        client.connect()
+                .onSuccess(conn -> (stage.isEmpty() ? Future.<List<Response>>succeededFuture() : conn.batch(stage))
+                        .compose(staged -> conn.batch(swap))
+                        .compose(replies -> checkExec(replies.get(replies.size() - 1), swapped))
+                        .onSuccess(v -> {
+                            logger.info("Replaced {} keys in Redis", replacements.size());
+                            conn.close();
+                            promise.complete();
+                        })
+                        .onFailure(err -> {
+                            logger.error("Redis replace failed", err);
+                            discardStaging(conn, replacements);
+                            promise.fail(err);
+                        }))
+                .onFailure(err -> {
+                    logger.error("Redis connection failed", err);
+                    promise.fail(err);
+                });
+        return promise.future();
+    }
+
+    /**
+     * Redis runs every command of a transaction even when one of them fails, and reports the failures as
+     * elements of the EXEC reply. A null reply means the transaction was aborted and nothing was replaced.
+     * Otherwise the keys whose command succeeded hold the new values already, the failure names them.
+     */
+    private static Future<Void> checkExec(Response exec, List<String> keys) {
+        if (exec == null || exec.type() != ResponseType.MULTI) {
+            return Future.failedFuture(new IllegalStateException("Redis transaction was aborted, no key was replaced"));
+        }
+        List<String> replaced = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < exec.size(); i++) {
+            Response reply = exec.get(i);
+            if (reply != null && reply.type() == ResponseType.ERROR) {
+                failed.add(keys.get(i) + " (" + reply + ")");
+            } else {
+                replaced.add(keys.get(i));
+            }
+        }
+        if (failed.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        return Future.failedFuture(new IllegalStateException("Redis replace failed for " + failed
+                + ", already replaced: " + replaced));
+    }
+
+    private static void discardStaging(RedisConnection conn, List<Replacement> replacements) {
+        Request del = Request.cmd(Command.DEL);
+        replacements.forEach(replacement -> del.arg(replacement.key() + STAGING_SUFFIX));
+        conn.send(del).onComplete(ar -> conn.close());
+    }
+}
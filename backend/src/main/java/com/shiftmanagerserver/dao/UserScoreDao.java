@@ -0,0 +1,32 @@
+package com.shiftmanagerserver.dao;
+
+import io.vertx.core.Future;
+
+import java.io.IOException;
+import java.util.Map;
+
+public interface UserScoreDao {
+    Future<Map<String, Integer>> readScores();
+
+    /**
+     * Atomically applies the given score deltas. Negative deltas never push a score below zero.
+     *
+     * @return the resulting score of every user that was touched
+     */
+    Future<Map<String, Integer>> applyDeltas(Map<String, Integer> deltas);
+
+    Future<Void> writeScores(Map<String, Integer> scores);
+
+    /**
+     * Sets scores only for users that do not have one stored yet.
+     */
+    Future<Void> seedScores(Map<String, Integer> scores);
+
+    Future<Void> removeScore(String username);
+
+    /**
+     * Replaces all stored scores with {@code scores} through {@link Replacement#commitAll}, removing those of
+     * users not in it. Nothing is written until then.
+     */
+    Replacement replacement(Map<String, Integer> scores) throws IOException;
+}
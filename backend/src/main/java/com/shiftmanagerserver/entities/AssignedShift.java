@@ -3,6 +3,8 @@ package com.shiftmanagerserver.entities;
 public class AssignedShift extends Shift {
     private String assignedUsername;
     private ShiftWeightPreset preset;
+    private String presetName;
+    private Integer presetVersion;
 
     public AssignedShift() {
         super();
@@ -11,7 +13,7 @@ public class AssignedShift extends Shift {
     public AssignedShift(String assignedUsername, Shift shift, ShiftWeightPreset preset) {
         super(shift.getDate(), shift.getType());
         this.assignedUsername = assignedUsername;
-        this.preset = preset;
+        setPreset(preset);
     }
 
     public String getAssignedUsername() {
@@ -28,6 +30,27 @@ public class AssignedShift extends Shift {
 
     public void setPreset(ShiftWeightPreset preset) {
         this.preset = preset;
+        if (preset != null) {
+            this.presetName = preset.getName();
+            this.presetVersion = preset.getVersion();
+        }
+    }
+
+    // Reference to the preset record in ShiftWeightSettings, this is what gets stored
+    public String getPresetName() {
+        return presetName;
+    }
+
+    public void setPresetName(String presetName) {
+        this.presetName = presetName;
+    }
+
+    public Integer getPresetVersion() {
+        return presetVersion;
+    }
+
+    public void setPresetVersion(Integer presetVersion) {
+        this.presetVersion = presetVersion;
     }
 
 }
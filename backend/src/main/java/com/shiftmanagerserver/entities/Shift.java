@@ -2,6 +2,7 @@ package com.shiftmanagerserver.entities;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 import java.util.UUID;
 
 public class Shift {
@@ -32,6 +33,16 @@ public class Shift {
         this.date = date;
     }
 
+    /**
+     * Day and type of the shift, equal for exactly the shifts {@link #equals} treats as the same.
+     */
+    public String dayKey() {
+        long time = date.getTime();
+        // Days since the epoch in the default time zone, without the cost of a Calendar
+        long day = Math.floorDiv(time + TimeZone.getDefault().getOffset(time), 86_400_000L);
+        return day + ":" + type;
+    }
+
     public ShiftType getType() {
         return type;
     }
@@ -1,5 +1,7 @@
 package com.shiftmanagerserver.entities;
 
+import java.util.Objects;
+
 public class ShiftWeight {
     private Day day;
     private ShiftType shiftType;
@@ -37,5 +39,18 @@ public class ShiftWeight {
     public void setWeight(int weight) {
         this.weight = weight;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ShiftWeight)) return false;
+        ShiftWeight that = (ShiftWeight) o;
+        return weight == that.weight && day == that.day && shiftType == that.shiftType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(day, shiftType, weight);
+    }
 }
 
@@ -1,16 +1,33 @@
 package com.shiftmanagerserver.entities;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
+/**
+ * A named set of shift weights. Never changed once created: the records in the preset history are shared by
+ * every shift that refers to them.
+ */
 public class ShiftWeightPreset {
-    private String name;
-    private List<ShiftWeight> weights;
+    private final String name;
+    private final int version;
+    private final List<ShiftWeight> weights;
+    // weight by day and shift type, built from weights on first use
+    private int[][] table;
 
-    public ShiftWeightPreset() {
+    public ShiftWeightPreset(String name, List<ShiftWeight> weights) {
+        this(name, 0, weights);
     }
 
-    public ShiftWeightPreset(String name, List<ShiftWeight> weights) {
+    @JsonCreator
+    public ShiftWeightPreset(@JsonProperty("name") String name,
+                             @JsonProperty("version") int version,
+                             @JsonProperty("weights") List<ShiftWeight> weights) {
         this.name = name;
+        this.version = version;
         this.weights = weights;
     }
 
@@ -18,16 +35,55 @@ public class ShiftWeightPreset {
         return name;
     }
 
-    public void setName(String name) {
-        this.name = name;
+    public int getVersion() {
+        return version;
     }
 
     public List<ShiftWeight> getWeights() {
         return weights;
     }
 
-    public void setWeights(List<ShiftWeight> weights) {
-        this.weights = weights;
+    /**
+     * The weight of a shift on the given day, 1 when the preset has no weight for it.
+     */
+    public int weightOf(Day day, ShiftType type) {
+        if (day == null || type == null) {
+            return 1;
+        }
+        int[][] compiled = table;
+        if (compiled == null) {
+            compiled = compileWeights();
+        }
+        return compiled[day.ordinal()][type.ordinal()];
+    }
+
+    /**
+     * Builds the lookup table behind {@link #weightOf} ahead of the first lookup.
+     */
+    void precompileWeights() {
+        compileWeights();
+    }
+
+    // The first weight listed for a day and type wins. The table never leaves this instance
+    private int[][] compileWeights() {
+        int[][] compiled = new int[Day.values().length][ShiftType.values().length];
+        for (int[] row : compiled) {
+            Arrays.fill(row, 1);
+        }
+        if (weights != null) {
+            for (int i = weights.size() - 1; i >= 0; i--) {
+                ShiftWeight weight = weights.get(i);
+                if (weight != null && weight.getDay() != null && weight.getShiftType() != null) {
+                    compiled[weight.getDay().ordinal()][weight.getShiftType().ordinal()] = weight.getWeight();
+                }
+            }
+        }
+        table = compiled;
+        return compiled;
+    }
+
+    public boolean hasSameContent(ShiftWeightPreset other) {
+        return other != null && Objects.equals(name, other.name) && Objects.equals(weights, other.weights);
     }
 }
 
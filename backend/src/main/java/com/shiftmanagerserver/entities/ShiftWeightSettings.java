@@ -3,19 +3,49 @@ package com.shiftmanagerserver.entities;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public class ShiftWeightSettings {
     private ShiftWeightPreset currentPresetObject;
     private Map<String, ShiftWeightPreset> presets;
+    // Every preset version ever used, assigned shifts refer to these by name and version
+    private List<ShiftWeightPreset> presetHistory;
 
     public ShiftWeightSettings() {
+        this.presetHistory = new ArrayList<>();
+    }
+
+    public ShiftWeightSettings(ShiftWeightPreset currentPresetObject, Map<String, ShiftWeightPreset> presets) {
+        this(currentPresetObject, presets, null);
     }
 
     @JsonCreator
-    public ShiftWeightSettings(@JsonProperty("currentPresetObject") ShiftWeightPreset currentPresetObject, @JsonProperty("presets")Map<String, ShiftWeightPreset> presets) {
+    public ShiftWeightSettings(@JsonProperty("currentPresetObject") ShiftWeightPreset currentPresetObject,
+                               @JsonProperty("presets") Map<String, ShiftWeightPreset> presets,
+                               @JsonProperty("presetHistory") List<ShiftWeightPreset> presetHistory) {
         this.presets = presets;
         this.currentPresetObject = currentPresetObject;
+        this.presetHistory = presetHistory != null ? new ArrayList<>(presetHistory) : new ArrayList<>();
+        for (int i = 0; i < this.presetHistory.size(); i++) {
+            this.presetHistory.set(i, freeze(this.presetHistory.get(i)));
+        }
+        if (this.presets != null) {
+            this.presets.replaceAll((name, preset) -> internPreset(preset));
+        }
+        if (this.currentPresetObject != null) {
+            this.currentPresetObject = internPreset(this.currentPresetObject);
+        }
+    }
+
+    // Shares the frozen records of the original, only presets interned later are new
+    private ShiftWeightSettings(ShiftWeightSettings original) {
+        this.currentPresetObject = original.currentPresetObject;
+        this.presets = original.presets != null ? new HashMap<>(original.presets) : null;
+        this.presetHistory = new ArrayList<>(original.presetHistory);
     }
 
     public ShiftWeightPreset getCurrentPresetObject() {
@@ -33,4 +63,82 @@ public class ShiftWeightSettings {
     public void setPresets(Map<String, ShiftWeightPreset> presets) {
         this.presets = presets;
     }
+
+    public List<ShiftWeightPreset> getPresetHistory() {
+        return presetHistory;
+    }
+
+    /**
+     * A copy that can be changed without affecting this instance. Preset records are shared, they are immutable.
+     */
+    public ShiftWeightSettings copy() {
+        return new ShiftWeightSettings(this);
+    }
+
+    public ShiftWeightPreset findPreset(String name, int version) {
+        for (ShiftWeightPreset preset : presetHistory) {
+            if (preset.getVersion() == version && Objects.equals(preset.getName(), name)) {
+                return preset;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the stored record with the same name and weights, registering a new version if there is none.
+     * Does not change which version is the active one for that name.
+     */
+    public ShiftWeightPreset internPreset(ShiftWeightPreset preset) {
+        if (preset == null) {
+            return null;
+        }
+        for (ShiftWeightPreset stored : presetHistory) {
+            if (stored.hasSameContent(preset)) {
+                return stored;
+            }
+        }
+        ShiftWeightPreset record = freeze(new ShiftWeightPreset(preset.getName(), nextVersion(preset.getName()), preset.getWeights()));
+        presetHistory.add(record);
+        return record;
+    }
+
+    /**
+     * Interns the preset and makes it the active version for its name.
+     */
+    public ShiftWeightPreset registerPreset(ShiftWeightPreset preset) {
+        ShiftWeightPreset record = internPreset(preset);
+        if (presets == null) {
+            presets = new HashMap<>();
+        }
+        presets.put(record.getName(), record);
+        return record;
+    }
+
+    /**
+     * Replaces the named presets and the active one, interning each of them.
+     */
+    public void replacePresets(Map<String, ShiftWeightPreset> newPresets, ShiftWeightPreset current) {
+        Map<String, ShiftWeightPreset> interned = new HashMap<>();
+        newPresets.forEach((name, preset) -> interned.put(name, internPreset(preset)));
+        this.presets = interned;
+        this.currentPresetObject = internPreset(current);
+    }
+
+    private int nextVersion(String name) {
+        int max = 0;
+        for (ShiftWeightPreset stored : presetHistory) {
+            if (Objects.equals(stored.getName(), name)) {
+                max = Math.max(max, stored.getVersion());
+            }
+        }
+        return max + 1;
+    }
+
+    private static ShiftWeightPreset freeze(ShiftWeightPreset preset) {
+        List<ShiftWeight> weights = preset.getWeights() != null ? preset.getWeights() : List.of();
+        ShiftWeightPreset frozen = new ShiftWeightPreset(preset.getName(), preset.getVersion(), List.copyOf(weights));
+        // The weights never change again, so the lookup table is built once here
+        frozen.precompileWeights();
+        return frozen;
+    }
 }
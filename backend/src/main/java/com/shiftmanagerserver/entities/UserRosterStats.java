@@ -0,0 +1,60 @@
+package com.shiftmanagerserver.entities;
+
+import java.util.Date;
+import java.util.Map;
+
+public class UserRosterStats {
+    private final String username;
+    private final int totalShifts;
+    private final Map<ShiftType, Integer> shiftsByType;
+    private final Map<Day, Integer> shiftsByDay;
+    private final int weightedLoad;
+    private final int missedDays;
+    private final Date lastShiftDate;
+    private final ShiftType lastShiftType;
+
+    public UserRosterStats(String username, int totalShifts, Map<ShiftType, Integer> shiftsByType,
+                           Map<Day, Integer> shiftsByDay, int weightedLoad, int missedDays,
+                           Date lastShiftDate, ShiftType lastShiftType) {
+        this.username = username;
+        this.totalShifts = totalShifts;
+        this.shiftsByType = shiftsByType;
+        this.shiftsByDay = shiftsByDay;
+        this.weightedLoad = weightedLoad;
+        this.missedDays = missedDays;
+        this.lastShiftDate = lastShiftDate;
+        this.lastShiftType = lastShiftType;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getTotalShifts() {
+        return totalShifts;
+    }
+
+    public Map<ShiftType, Integer> getShiftsByType() {
+        return shiftsByType;
+    }
+
+    public Map<Day, Integer> getShiftsByDay() {
+        return shiftsByDay;
+    }
+
+    public int getWeightedLoad() {
+        return weightedLoad;
+    }
+
+    public int getMissedDays() {
+        return missedDays;
+    }
+
+    public Date getLastShiftDate() {
+        return lastShiftDate;
+    }
+
+    public ShiftType getLastShiftType() {
+        return lastShiftType;
+    }
+}
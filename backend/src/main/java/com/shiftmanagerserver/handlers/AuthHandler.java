@@ -2,6 +2,7 @@ package com.shiftmanagerserver.handlers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.shiftmanagerserver.entities.User;
+import com.shiftmanagerserver.service.PasswordHasher;
 import com.shiftmanagerserver.service.UserService;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
@@ -120,6 +121,14 @@ public class AuthHandler implements Handler {
     }
 
     private void handleError(RoutingContext ctx, Throwable e) {
+        if (e instanceof PasswordHasher.OverloadedException) {
+            ctx.response()
+                    .setStatusCode(503)
+                    .putHeader("Retry-After", "1")
+                    .putHeader("content-type", "application/json")
+                    .end(new JsonObject().put("error", e.getMessage()).encode());
+            return;
+        }
         logger.error("Error processing request", e);
         ctx.response()
                 .setStatusCode(500)
@@ -1,103 +1,354 @@
 package com.shiftmanagerserver.handlers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
-import com.shiftmanagerserver.dao.RedisShiftWeightSettingsDao;
-import com.shiftmanagerserver.dao.RedisUserDao;
-import com.shiftmanagerserver.dao.RedisShiftsDao;
-import com.shiftmanagerserver.dao.RedisConstraintDao;
-import io.vertx.core.CompositeFuture;
+import com.shiftmanagerserver.entities.AssignedShift;
+import com.shiftmanagerserver.entities.Constraint;
+import com.shiftmanagerserver.entities.ShiftWeightSettings;
+import com.shiftmanagerserver.entities.User;
+import com.shiftmanagerserver.service.ChangeJournal;
+import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.RestoreService;
+import com.shiftmanagerserver.service.ShiftService;
+import com.shiftmanagerserver.service.ShiftWeightSettingsService;
+import com.shiftmanagerserver.service.Snapshot;
+import com.shiftmanagerserver.service.UserService;
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 public class BackupHandler implements Handler {
     private static final Logger logger = LoggerFactory.getLogger(BackupHandler.class);
-    private final RedisUserDao userDao;
-    private final RedisShiftsDao shiftsDao;
-    private final RedisConstraintDao constraintDao;
-    private final RedisShiftWeightSettingsDao shiftWeightSettingsDao;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private final UserService userService;
+    private final ShiftService shiftService;
+    private final ConstraintService constraintService;
+    private final ShiftWeightSettingsService shiftWeightSettingsService;
+    private final RestoreService restoreService;
+    private final ChangeJournal journal;
     private final ObjectMapper objectMapper;
 
     @Inject
-    public BackupHandler(RedisUserDao userDao, RedisShiftsDao shiftsDao, RedisConstraintDao constraintDao, RedisShiftWeightSettingsDao shiftWeightSettingsDao, ObjectMapper objectMapper) {
-        this.userDao = userDao;
-        this.shiftsDao = shiftsDao;
-        this.constraintDao = constraintDao;
-        this.shiftWeightSettingsDao = shiftWeightSettingsDao;
+    public BackupHandler(UserService userService, ShiftService shiftService, ConstraintService constraintService,
+                         ShiftWeightSettingsService shiftWeightSettingsService, RestoreService restoreService,
+                         ChangeJournal journal, ObjectMapper objectMapper) {
+        this.userService = userService;
+        this.shiftService = shiftService;
+        this.constraintService = constraintService;
+        this.shiftWeightSettingsService = shiftWeightSettingsService;
+        this.restoreService = restoreService;
+        this.journal = journal;
         this.objectMapper = objectMapper;
     }
 
     @Override
     public void addRoutes(Router router) {
         router.get("/api/backup").handler(this::handleBackup);
+        router.post("/api/backup/restore").handler(this::handleRestore);
     }
 
+    /**
+     * Restores a backup sent as the raw request body, or as a multipart form with the full backup in the
+     * {@code backup} part followed by incremental backups taken since, in order, as {@code changes} parts.
+     * Uploads are streamed to temporary files, never held in memory, and nothing is replaced unless the whole
+     * archive and every change applies.
+     */
+    private void handleRestore(RoutingContext ctx) {
+        // Checked before pausing, a refused upload is still read and dropped
+        String role = ctx.user().principal().getString("role");
+        if (!"admin".equals(role)) {
+            ctx.response().setStatusCode(403).end("Admins only");
+            return;
+        }
+        // Hold the body back until there is somewhere to write it
+        ctx.request().pause();
+        FileSystem fs = ctx.vertx().fileSystem();
+        String contentType = ctx.request().getHeader(HttpHeaders.CONTENT_TYPE);
+        Future<RestoreService.Summary> restored;
+        if (contentType != null && contentType.toLowerCase().startsWith("multipart/form-data")) {
+            restored = restoreParts(ctx.request(), fs);
+        } else {
+            restored = fs.createTempFile("restore-", ".zip")
+                    .compose(path -> fs.open(path, new OpenOptions().setWrite(true))
+                            .compose(file -> ctx.request().pipeTo(file))
+                            .compose(v -> restoreService.restore(Path.of(path), List.of()))
+                            .onComplete(ar -> fs.delete(path)));
+        }
+        restored
+                .onSuccess(summary -> JsonResponse.send(ctx, objectMapper, summary))
+                .onFailure(err -> {
+                    if (err instanceof IllegalArgumentException) {
+                        sendError(ctx, 400, err.getMessage());
+                        return;
+                    }
+                    logger.error("Error restoring backup", err);
+                    ctx.response().setStatusCode(500).end();
+                });
+    }
+
+    private Future<RestoreService.Summary> restoreParts(HttpServerRequest request, FileSystem fs) {
+        String directory = System.getProperty("java.io.tmpdir");
+        List<String> files = new ArrayList<>();
+        List<Path> backups = new ArrayList<>();
+        List<Path> changes = new ArrayList<>();
+        List<Future<Void>> uploads = new ArrayList<>();
+        Promise<Void> received = Promise.promise();
+        request.setExpectMultipart(true);
+        request.uploadHandler(upload -> {
+            List<Path> target = switch (upload.name()) {
+                case "backup" -> backups;
+                case "changes" -> changes;
+                default -> null;
+            };
+            if (target == null) {
+                // Read and dropped, the rest of the form is still needed
+                upload.handler(ignored -> {});
+                return;
+            }
+            String file = Path.of(directory, "restore-" + UUID.randomUUID()).toString();
+            files.add(file);
+            target.add(Path.of(file));
+            uploads.add(upload.streamToFileSystem(file));
+        });
+        request.exceptionHandler(received::tryFail);
+        request.endHandler(v -> received.tryComplete());
+        request.resume();
+        return received.future()
+                .compose(v -> Future.all(uploads))
+                .compose(v -> {
+                    if (backups.size() != 1) {
+                        return Future.failedFuture(new IllegalArgumentException("Expected one backup part"));
+                    }
+                    return restoreService.restore(backups.get(0), changes);
+                })
+                .onComplete(ar -> files.forEach(fs::delete));
+    }
+
+    /**
+     * The changes since the backup with the given ID, one JSON entry per line, as recorded by the
+     * {@link ChangeJournal}. X-Backup-Id names the last change included, the ID to ask from next time.
+     * Sent in chunks like the full archive, pausing while the client catches up.
+     */
+    private void handleChanges(RoutingContext ctx, String since) {
+        long seq;
+        try {
+            seq = Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            sendError(ctx, 400, "Invalid backup ID " + since);
+            return;
+        }
+        journal.changesSince(seq)
+                .onSuccess(entries -> {
+                    long last = seq + entries.size();
+                    HttpServerResponse response = ctx.response()
+                            .setChunked(true)
+                            .putHeader("Content-Type", "application/x-ndjson")
+                            .putHeader("Content-Disposition", "attachment; filename=changes-" + seq + "-" + last + ".ndjson")
+                            .putHeader("X-Backup-Id", String.valueOf(last));
+                    new ChangesWriter(response, entries.iterator()).run();
+                })
+                .onFailure(err -> {
+                    if (err instanceof IllegalArgumentException) {
+                        sendError(ctx, 400, err.getMessage());
+                    } else if (err instanceof ChangeJournal.ChangesUnavailableException) {
+                        sendError(ctx, 410, err.getMessage());
+                    } else {
+                        logger.error("Error reading changes since backup {}", seq, err);
+                        ctx.response().setStatusCode(500).end();
+                    }
+                });
+    }
+
+    private static void sendError(RoutingContext ctx, int status, String message) {
+        ctx.response()
+                .setStatusCode(status)
+                .putHeader("Content-Type", "application/json")
+                .end(new JsonObject().put("error", message).encode());
+    }
+
+    /**
+     * Streams the archive from the services' in-memory snapshots. Entries are compressed as they are
+     * serialized and sent in chunks, pausing while the client catches up, so the archive is never held whole.
+     * With {@code ?since=<backup ID>} only the changes since that backup are sent instead.
+     * <p>
+     * The backup ID is the newest journal entry when the snapshots are taken. Changes after it may already be
+     * in the archive too, replaying them over it on restore is harmless.
+     */
     private void handleBackup(RoutingContext ctx) {
-        CompositeFuture compositeFuture = Future.all(List.of(userDao.read(), shiftsDao.read(), constraintDao.read(), shiftWeightSettingsDao.read()));
-        compositeFuture.onSuccess(compositeFuture1 -> {
+        String since = ctx.request().getParam("since");
+        if (since != null) {
+            handleChanges(ctx, since);
+            return;
+        }
+        Long backupId = journal.lastSeq();
+        Future.all(userService.getSnapshot(), shiftService.getSnapshot(),
+                        constraintService.getSnapshot(), shiftWeightSettingsService.getSnapshot())
+                .onSuccess(snapshots -> {
+                    Snapshot<Map<String, User>> users = snapshots.resultAt(0);
+                    Snapshot<List<AssignedShift>> shifts = snapshots.resultAt(1);
+                    Snapshot<List<Constraint>> constraints = snapshots.resultAt(2);
+                    Snapshot<ShiftWeightSettings> shiftWeightSettings = snapshots.resultAt(3);
+                    List<ArchiveEntry> entries = new ArrayList<>();
+                    if (backupId != null) {
+                        entries.add(new ArchiveEntry("manifest.json", Map.of("backupId", backupId)));
+                        ctx.response().putHeader("X-Backup-Id", String.valueOf(backupId));
+                    }
+                    entries.add(new ArchiveEntry("users.json", users.data().values()));
+                    entries.add(new ArchiveEntry("shifts.json", shifts.data()));
+                    entries.add(new ArchiveEntry("constraints.json", constraints.data()));
+                    entries.add(new ArchiveEntry("shiftWeightSettings.json", shiftWeightSettings.data()));
+
+                    // Add date and time to filename
+                    LocalDateTime now = LocalDateTime.now();
+                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+                    String timestamp = now.format(formatter);
+                    String filename = "backup-" + timestamp + ".zip";
+
+                    HttpServerResponse response = ctx.response()
+                            .setChunked(true)
+                            .putHeader("Content-Type", "application/zip")
+                            .putHeader("Content-Disposition", "attachment; filename=" + filename)
+                            // Already compressed
+                            .putHeader("Content-Encoding", "identity");
+                    new ArchiveWriter(response, objectMapper, entries.iterator()).run();
+                })
+                .onFailure(error -> {
+                    logger.error("Error reading data for backup", error);
+                    ctx.response().setStatusCode(500).end();
+                });
+    }
+
+    private record ArchiveEntry(String name, Object value) {
+    }
+
+    private static final class ChangesWriter {
+        private final HttpServerResponse response;
+        private final Iterator<Buffer> entries;
+        private Buffer chunk = Buffer.buffer(CHUNK_SIZE);
+
+        ChangesWriter(HttpServerResponse response, Iterator<Buffer> entries) {
+            this.response = response;
+            this.entries = entries;
+        }
+
+        void run() {
+            while (entries.hasNext()) {
+                if (response.closed()) {
+                    return;
+                }
+                chunk.appendBuffer(entries.next()).appendByte((byte) '\n');
+                if (chunk.length() >= CHUNK_SIZE) {
+                    response.write(chunk);
+                    chunk = Buffer.buffer(CHUNK_SIZE);
+                    if (response.writeQueueFull()) {
+                        response.drainHandler(v -> run());
+                        return;
+                    }
+                }
+            }
+            if (!response.closed()) {
+                response.end(chunk);
+            }
+        }
+    }
+
+    private static final class ArchiveWriter {
+        private final HttpServerResponse response;
+        private final ObjectMapper mapper;
+        private final Iterator<ArchiveEntry> entries;
+        private final BufferOutputStream out = new BufferOutputStream(CHUNK_SIZE);
+        private final ZipOutputStream zip = new ZipOutputStream(out);
+        // The entry being written, its remaining elements when it is an array
+        private JsonGenerator generator;
+        private Iterator<?> items;
+        private boolean array;
+
+        ArchiveWriter(HttpServerResponse response, ObjectMapper mapper, Iterator<ArchiveEntry> entries) {
+            this.response = response;
+            this.mapper = mapper;
+            this.entries = entries;
+        }
+
+        void run() {
             try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ZipOutputStream zos = new ZipOutputStream(baos);
-
-                // Users
-                Object users = compositeFuture1.resultAt(0);
-                String usersJson = objectMapper.writeValueAsString(users);
-                zos.putNextEntry(new ZipEntry("users.json"));
-                zos.write(usersJson.getBytes());
-                zos.closeEntry();
-
-                // Shifts
-                Object shifts = compositeFuture1.resultAt(1);
-                String shiftsJson = objectMapper.writeValueAsString(shifts);
-                zos.putNextEntry(new ZipEntry("shifts.json"));
-                zos.write(shiftsJson.getBytes());
-                zos.closeEntry();
-
-                // Constraints
-                Object constraints = compositeFuture1.resultAt(2);
-                String constraintsJson = objectMapper.writeValueAsString(constraints);
-                zos.putNextEntry(new ZipEntry("constraints.json"));
-                zos.write(constraintsJson.getBytes());
-                zos.closeEntry();
-
-                // Shift Weight Settings
-                Object shiftWeightSettings = compositeFuture1.resultAt(3);
-                String shiftWeightSettingsJson = objectMapper.writeValueAsString(shiftWeightSettings);
-                zos.putNextEntry(new ZipEntry("shiftWeightSettings.json"));
-                zos.write(shiftWeightSettingsJson.getBytes());
-                zos.closeEntry();
-
-                zos.close();
-
-                // Add date and time to filename
-                LocalDateTime now = LocalDateTime.now();
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
-                String timestamp = now.format(formatter);
-                String filename = "backup-" + timestamp + ".zip";
-
-                ctx.response()
-                    .putHeader("Content-Type", "application/zip")
-                    .putHeader("Content-Disposition", "attachment; filename=" + filename)
-                    .end(Buffer.buffer(baos.toByteArray()));
+                while (true) {
+                    if (response.closed()) {
+                        return;
+                    }
+                    if (items == null) {
+                        if (!entries.hasNext()) {
+                            break;
+                        }
+                        startEntry(entries.next());
+                    } else if (items.hasNext()) {
+                        mapper.writeValue(generator, items.next());
+                    } else {
+                        finishEntry();
+                    }
+                    if (out.size() >= CHUNK_SIZE) {
+                        response.write(out.take());
+                        if (response.writeQueueFull()) {
+                            response.drainHandler(v -> run());
+                            return;
+                        }
+                    }
+                }
+                zip.close();
+                response.end(out.take());
             } catch (IOException e) {
                 logger.error("Error creating backup zip", e);
-                ctx.response().setStatusCode(500).end();
+                // Part of the archive may already be out, the status can't change anymore
+                response.reset();
             }
-        }).onFailure(error -> {
-            logger.error("Error reading data for backup", error);
-            ctx.response().setStatusCode(500).end();
-        });
+        }
+
+        private void startEntry(ArchiveEntry entry) throws IOException {
+            zip.putNextEntry(new ZipEntry(entry.name()));
+            generator = mapper.getFactory().createGenerator(zip);
+            // Closing the entry's generator must not close the archive
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (entry.value() instanceof Collection<?> collection) {
+                array = true;
+                generator.writeStartArray();
+                items = collection.iterator();
+            } else {
+                array = false;
+                items = Collections.singletonList(entry.value()).iterator();
+            }
+        }
+
+        private void finishEntry() throws IOException {
+            if (array) {
+                generator.writeEndArray();
+            }
+            generator.close();
+            zip.closeEntry();
+            items = null;
+        }
     }
 }
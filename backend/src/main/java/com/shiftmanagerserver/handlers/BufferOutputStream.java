@@ -0,0 +1,38 @@
+package com.shiftmanagerserver.handlers;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.OutputStream;
+
+/**
+ * Collects written bytes in a Vert.x buffer that is handed to the response chunk by chunk.
+ */
+final class BufferOutputStream extends OutputStream {
+    private final int chunkSize;
+    private Buffer buffer;
+
+    BufferOutputStream(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.buffer = Buffer.buffer(chunkSize);
+    }
+
+    @Override
+    public void write(int b) {
+        buffer.appendByte((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        buffer.appendBytes(bytes, offset, length);
+    }
+
+    int size() {
+        return buffer.length();
+    }
+
+    Buffer take() {
+        Buffer taken = buffer;
+        buffer = Buffer.buffer(chunkSize);
+        return taken;
+    }
+}
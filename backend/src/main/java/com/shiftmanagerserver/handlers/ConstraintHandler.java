@@ -6,27 +6,104 @@ import com.shiftmanagerserver.entities.Constraint;
 import com.shiftmanagerserver.entities.Shift;
 import com.shiftmanagerserver.entities.ShiftType;
 import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.UserService;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 public class ConstraintHandler implements Handler {
     private static final Logger logger = LoggerFactory.getLogger(ConstraintHandler.class);
     private final ConstraintService constraintService;
+    private final UserService userService;
     private final ObjectMapper objectMapper;
 
-    public ConstraintHandler(com.shiftmanagerserver.service.ConstraintService constraintService, com.fasterxml.jackson.databind.ObjectMapper objectMapper) {
+    record ImportReport(int added, int replaced, int duplicates, long rejected, List<ConstraintImport.RowError> errors) {
+    }
+
+    public ConstraintHandler(com.shiftmanagerserver.service.ConstraintService constraintService, UserService userService, com.fasterxml.jackson.databind.ObjectMapper objectMapper) {
         this.constraintService = constraintService;
+        this.userService = userService;
         this.objectMapper = objectMapper;
     }
 
+    /**
+     * Imports constraints from a CSV or NDJSON body, parsed line by line as it is received and stored with a
+     * single write. Valid rows are imported even when others are rejected; the response counts what happened
+     * and lists the first rejected lines with the reason.
+     */
+    public void handleImport(RoutingContext ctx) {
+        HttpServerRequest request = ctx.request();
+        // Checked before pausing, a refused upload is still read and dropped
+        ConstraintImport.Format format = ConstraintImport.format(request.getHeader(HttpHeaders.CONTENT_TYPE));
+        if (format == null) {
+            ctx.response()
+                    .setStatusCode(415)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject().put("error", "Expected text/csv or application/x-ndjson").encode());
+            return;
+        }
+        // Nothing is read until the handlers are in place
+        request.pause();
+        // Permission check: only admins may import constraints of other users
+        String username = ctx.user().principal().getString("username");
+        boolean admin = "admin".equals(ctx.user().principal().getString("role"));
+        ConstraintImport constraintImport = new ConstraintImport(format, objectMapper, constraint ->
+                admin || constraint.getUserId().equals(username) ? null : "can only import your own constraints");
+        long start = System.currentTimeMillis();
+        request.handler(constraintImport::accept);
+        request.exceptionHandler(err -> {
+            logger.warn("Constraint import upload failed", err);
+            // The end handler won't run anymore, nothing was imported
+            if (!ctx.response().ended() && !ctx.response().closed()) {
+                ctx.response()
+                        .setStatusCode(400)
+                        .putHeader("Content-Type", "application/json")
+                        .end(new JsonObject().put("error", "Upload failed").encode());
+            }
+        });
+        request.endHandler(v -> {
+            constraintImport.end();
+            userService.getSnapshot()
+                    .compose(users -> {
+                        List<Constraint> valid = new ArrayList<>(constraintImport.rows().size());
+                        for (ConstraintImport.Row row : constraintImport.rows()) {
+                            if (users.data().containsKey(row.constraint().getUserId())) {
+                                valid.add(row.constraint());
+                            } else {
+                                constraintImport.reject(row.line(), "unknown user " + row.constraint().getUserId());
+                            }
+                        }
+                        return constraintService.importConstraints(valid);
+                    })
+                    .onSuccess(result -> {
+                        logger.info("Imported {} constraints, replaced {}, rejected {} lines in {} ms", result.added(),
+                                result.replaced(), constraintImport.rejected(), System.currentTimeMillis() - start);
+                        // The connection may have failed while the rows were stored
+                        if (ctx.response().ended() || ctx.response().closed()) {
+                            return;
+                        }
+                        JsonResponse.send(ctx, objectMapper, new ImportReport(result.added(), result.replaced(),
+                                result.duplicates(), constraintImport.rejected(), constraintImport.errors()));
+                    })
+                    .onFailure(err -> {
+                        logger.error("Error importing constraints", err);
+                        if (!ctx.response().ended() && !ctx.response().closed()) {
+                            handleError(ctx, err);
+                        }
+                    });
+        });
+        request.resume();
+    }
+
     public void handleCreateConstraint(RoutingContext ctx) {
         try {
             String body = ctx.body().asString();
@@ -66,17 +143,12 @@ public class ConstraintHandler implements Handler {
             String userId = ctx.pathParam("userId");
             logger.info("Fetching constraints for userId: {}", userId);
 
-            constraintService.getConstraintsByUserId(userId)
+            constraintService.getConstraintsByUserIdSnapshot(userId)
                 .onSuccess(constraints -> {
-                    try {
-                        JsonArray constraintsArray = new JsonArray(objectMapper.writeValueAsString(constraints));
-                        ctx.response()
-                                .putHeader("Content-Type", "application/json")
-                                .end(constraintsArray.encode());
-                    } catch (Exception e) {
-                        logger.error("Error serializing constraints", e);
-                        handleError(ctx, e);
+                    if (ETags.notModified(ctx, ETags.of(constraints.version(), null))) {
+                        return;
                     }
+                    JsonResponse.send(ctx, objectMapper, constraints.data());
                 })
                 .onFailure(err -> {
                     logger.error("Error fetching constraints", err);
@@ -89,17 +161,14 @@ public class ConstraintHandler implements Handler {
     }
 
     public void handleGetAllConstraints(RoutingContext ctx) {
-        constraintService.getUserConstraints(ctx.user().principal().getString("username"))
+        String username = ctx.user().principal().getString("username");
+        constraintService.getUserConstraintsSnapshot(username)
             .onSuccess(constraints -> {
-                try {
-                    JsonArray constraintsArray = new JsonArray(objectMapper.writeValueAsString(constraints));
-                    ctx.response()
-                            .putHeader("Content-Type", "application/json")
-                            .end(constraintsArray.encode());
-                } catch (Exception e) {
-                    logger.error("Error serializing constraints", e);
-                    handleError(ctx, e);
+                // What is returned depends on who asks
+                if (ETags.notModified(ctx, ETags.of(constraints.version(), username))) {
+                    return;
                 }
+                JsonResponse.send(ctx, objectMapper, constraints.data());
             })
             .onFailure(err -> {
                 logger.error("Error fetching all constraints", err);
@@ -199,6 +268,7 @@ public class ConstraintHandler implements Handler {
     @Override
     public void addRoutes(Router router) {
         router.post("/api/constraints").handler(this::handleCreateConstraint);
+        router.post("/api/constraints/import").handler(this::handleImport);
         router.get("/api/constraints").handler(this::handleGetAllConstraints);
         router.get("/api/constraints/user/:userId").handler(this::handleGetConstraintsByUserId);
         router.delete("/api/constraints").handler(this::handleDeleteConstraint);
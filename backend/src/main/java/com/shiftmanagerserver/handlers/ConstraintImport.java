@@ -0,0 +1,293 @@
+package com.shiftmanagerserver.handlers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shiftmanagerserver.entities.Constraint;
+import com.shiftmanagerserver.entities.ConstraintType;
+import com.shiftmanagerserver.entities.Shift;
+import com.shiftmanagerserver.entities.ShiftType;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Turns an uploaded constraint file into constraints as it arrives, one line at a time, so the file is never
+ * held whole. NDJSON lines are constraints as POST /api/constraints takes them. CSV starts with a header naming
+ * the columns userId, date, type and constraintType in any order; dates are epoch milliseconds or yyyy-MM-dd,
+ * types their Hebrew or English names. A line that doesn't parse or validate is reported by number and skipped.
+ */
+final class ConstraintImport {
+    static final int MAX_ROWS = 100_000;
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    private static final String[] COLUMNS = {"userId", "date", "type", "constraintType"};
+
+    enum Format {CSV, NDJSON}
+
+    record Row(long line, Constraint constraint) {
+    }
+
+    record RowError(long line, String error) {
+    }
+
+    private final Format format;
+    private final ObjectMapper mapper;
+    // Further checks a valid constraint has to pass, the error or null
+    private final Function<Constraint, String> check;
+    private final List<Row> rows = new ArrayList<>();
+    private final List<RowError> errors = new ArrayList<>();
+    private final ZoneId zone = ZoneId.systemDefault();
+    private Buffer partial = Buffer.buffer();
+    private boolean overlong;
+    private long line;
+    private long rejected;
+    private Map<String, Integer> columns;
+
+    ConstraintImport(Format format, ObjectMapper mapper, Function<Constraint, String> check) {
+        this.format = format;
+        this.mapper = mapper;
+        this.check = check;
+    }
+
+    static Format format(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String mediaType = contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        return switch (mediaType) {
+            case "text/csv" -> Format.CSV;
+            case "application/x-ndjson", "application/ndjson", "application/jsonl" -> Format.NDJSON;
+            default -> null;
+        };
+    }
+
+    void accept(Buffer chunk) {
+        int start = 0;
+        for (int i = 0; i < chunk.length(); i++) {
+            if (chunk.getByte(i) == '\n') {
+                append(chunk, start, i);
+                endLine();
+                start = i + 1;
+            }
+        }
+        append(chunk, start, chunk.length());
+    }
+
+    void end() {
+        if (partial.length() > 0 || overlong) {
+            endLine();
+        }
+    }
+
+    List<Row> rows() {
+        return rows;
+    }
+
+    void reject(long line, String error) {
+        rejected++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new RowError(line, error));
+        }
+    }
+
+    long rejected() {
+        return rejected;
+    }
+
+    // The first errors by line, rejections found after parsing included
+    List<RowError> errors() {
+        errors.sort(Comparator.comparingLong(RowError::line));
+        return errors;
+    }
+
+    private void append(Buffer chunk, int from, int to) {
+        if (overlong || from == to) {
+            return;
+        }
+        if (partial.length() + to - from > MAX_LINE) {
+            // Dropped up to the next line break
+            overlong = true;
+            partial = Buffer.buffer();
+            return;
+        }
+        partial.appendBuffer(chunk, from, to - from);
+    }
+
+    private void endLine() {
+        line++;
+        String text = partial.toString(StandardCharsets.UTF_8);
+        partial = Buffer.buffer();
+        if (overlong) {
+            overlong = false;
+            reject(line, "line longer than " + MAX_LINE + " bytes");
+            return;
+        }
+        if (line == 1 && text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        text = text.strip();
+        if (text.isEmpty()) {
+            return;
+        }
+        if (format == Format.CSV && columns == null) {
+            readHeader(text);
+            return;
+        }
+        if (rows.size() >= MAX_ROWS) {
+            reject(line, "more than " + MAX_ROWS + " rows");
+            return;
+        }
+        try {
+            Constraint constraint = format == Format.CSV ? parseCsv(text) : parseJson(text);
+            String error = validate(constraint);
+            if (error == null) {
+                error = check.apply(constraint);
+            }
+            if (error != null) {
+                reject(line, error);
+            } else {
+                rows.add(new Row(line, constraint));
+            }
+        } catch (IllegalArgumentException e) {
+            reject(line, e.getMessage());
+        }
+    }
+
+    private void readHeader(String text) {
+        Map<String, Integer> byName = new HashMap<>();
+        List<String> names = fields(text);
+        for (int i = 0; i < names.size(); i++) {
+            byName.put(names.get(i).toLowerCase(Locale.ROOT), i);
+        }
+        columns = new HashMap<>();
+        for (String column : COLUMNS) {
+            Integer index = byName.get(column.toLowerCase(Locale.ROOT));
+            if (index == null) {
+                reject(line, "header is missing the " + column + " column");
+                // Every following row is reported against the broken header
+                columns = Map.of();
+                return;
+            }
+            columns.put(column, index);
+        }
+    }
+
+    private Constraint parseJson(String text) {
+        try {
+            Constraint constraint = mapper.readValue(text, Constraint.class);
+            if (constraint == null) {
+                throw new IllegalArgumentException("expected a constraint object");
+            }
+            return constraint;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage());
+        }
+    }
+
+    private Constraint parseCsv(String text) {
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("no valid header");
+        }
+        List<String> values = fields(text);
+        Constraint constraint = new Constraint();
+        constraint.setUserId(column(values, "userId"));
+        constraint.setShift(new Shift(parseDate(column(values, "date")), parseShiftType(column(values, "type"))));
+        constraint.setConstraintType(parseConstraintType(column(values, "constraintType")));
+        return constraint;
+    }
+
+    private String column(List<String> values, String name) {
+        int index = columns.get(name);
+        if (index >= values.size() || values.get(index).isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return values.get(index);
+    }
+
+    private static String validate(Constraint constraint) {
+        if (constraint.getUserId() == null || constraint.getUserId().isBlank()) {
+            return "missing userId";
+        }
+        if (constraint.getShift() == null || constraint.getShift().getDate() == null || constraint.getShift().getType() == null) {
+            return "missing shift date or type";
+        }
+        if (constraint.getConstraintType() == null) {
+            return "missing constraintType";
+        }
+        return null;
+    }
+
+    private Date parseDate(String value) {
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return new Date(Long.parseLong(value));
+            }
+            LocalDate date = value.length() == 10 && value.charAt(4) == '-' && value.charAt(7) == '-'
+                    // The common yyyy-MM-dd without going through a formatter
+                    ? LocalDate.of(Integer.parseInt(value, 0, 4, 10), Integer.parseInt(value, 5, 7, 10),
+                            Integer.parseInt(value, 8, 10, 10))
+                    : LocalDate.parse(value);
+            return Date.from(date.atStartOfDay(zone).toInstant());
+        } catch (NumberFormatException | DateTimeException e) {
+            throw new IllegalArgumentException("invalid date " + value);
+        }
+    }
+
+    private static ShiftType parseShiftType(String value) {
+        for (ShiftType type : ShiftType.values()) {
+            if (type.getHebrewName().equals(value) || type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown type " + value);
+    }
+
+    private static ConstraintType parseConstraintType(String value) {
+        for (ConstraintType type : ConstraintType.values()) {
+            if (type.getHebrewName().equals(value) || type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown constraintType " + value);
+    }
+
+    // Comma separated, fields may be quoted with "" for a quote inside
+    private static List<String> fields(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().strip());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().strip());
+        return fields;
+    }
+}
@@ -0,0 +1,58 @@
+package com.shiftmanagerserver.handlers;
+
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Weak ETags built from a service's data version. Versions start over with every process, so each tag
+ * also carries the time this process started. The tags are weak because the same version is sent gzipped
+ * or not, depending on the request's Accept-Encoding.
+ */
+final class ETags {
+    private static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+
+    private ETags() {
+    }
+
+    /**
+     * @param variant what else the response depends on besides the data, e.g. the caller or the query, or null
+     */
+    static String of(long version, String variant) {
+        String tag = BOOT + "-" + version;
+        if (variant != null) {
+            tag += "-" + Integer.toHexString(variant.hashCode());
+        }
+        return "W/\"" + tag + "\"";
+    }
+
+    /**
+     * Sets the ETag on the response. When the client already holds this version it answers 304 and returns true.
+     */
+    static boolean notModified(RoutingContext ctx, String etag) {
+        ctx.response()
+                .putHeader("ETag", etag)
+                .putHeader("Cache-Control", "no-cache")
+                .putHeader("Vary", "Accept-Encoding");
+        String ifNoneMatch = ctx.request().getHeader("If-None-Match");
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+            ctx.response().setStatusCode(304).end();
+            return true;
+        }
+        return false;
+    }
+
+    // If-None-Match uses the weak comparison, so W/ prefixes are ignored on both sides
+    private static boolean matches(String header, String etag) {
+        String opaque = opaque(etag);
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaque(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -0,0 +1,121 @@
+package com.shiftmanagerserver.handlers;
+
+import com.shiftmanagerserver.service.ChangeEvents;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-sent events at /api/events: forwards the change notices services publish on the event bus to every
+ * connected client. A client that can't keep up doesn't get a backlog; its pending notices are merged per
+ * entity and sent once its connection drains.
+ */
+public class EventsHandler implements Handler {
+    private static final Logger logger = LoggerFactory.getLogger(EventsHandler.class);
+    private static final long HEARTBEAT_MILLIS = 25_000;
+    private final Vertx vertx;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    public EventsHandler(Vertx vertx) {
+        this.vertx = vertx;
+        vertx.eventBus().<JsonObject>consumer(ChangeEvents.ADDRESS, message -> {
+            for (Connection connection : connections) {
+                connection.send(message.body());
+            }
+        });
+    }
+
+    public void handleSubscribe(RoutingContext ctx) {
+        HttpServerResponse response = ctx.response();
+        response.setChunked(true)
+                .putHeader("Content-Type", "text/event-stream")
+                .putHeader("Cache-Control", "no-cache")
+                .putHeader("Connection", "keep-alive")
+                .putHeader("X-Accel-Buffering", "no")
+                // A compressor may hold events back until it has enough to compress
+                .putHeader("Content-Encoding", "identity");
+        response.write("retry: 5000\n\n");
+
+        Connection connection = new Connection(response);
+        connections.add(connection);
+        long heartbeat = vertx.setPeriodic(HEARTBEAT_MILLIS, id -> connection.heartbeat());
+        response.closeHandler(v -> {
+            connections.remove(connection);
+            vertx.cancelTimer(heartbeat);
+        });
+        logger.info("Event subscriber '{}' connected, {} connected", ctx.user().principal().getString("username"), connections.size());
+    }
+
+    private static final class Connection {
+        private final HttpServerResponse response;
+        // Notices held back while the client is slow, at most one per entity
+        private final Map<String, JsonObject> pending = new LinkedHashMap<>();
+        private boolean waitingForDrain;
+
+        Connection(HttpServerResponse response) {
+            this.response = response;
+        }
+
+        synchronized void send(JsonObject event) {
+            if (response.closed()) {
+                return;
+            }
+            String entity = event.getString("entity");
+            pending.merge(entity, event, Connection::coalesce);
+            flush();
+        }
+
+        synchronized void heartbeat() {
+            if (!response.closed() && !waitingForDrain) {
+                response.write(": ping\n\n");
+            }
+        }
+
+        private void flush() {
+            if (waitingForDrain) {
+                return;
+            }
+            while (!pending.isEmpty()) {
+                if (response.writeQueueFull()) {
+                    waitingForDrain = true;
+                    response.drainHandler(v -> {
+                        synchronized (this) {
+                            waitingForDrain = false;
+                            flush();
+                        }
+                    });
+                    return;
+                }
+                String entity = pending.keySet().iterator().next();
+                JsonObject event = pending.remove(entity);
+                response.write("event: change\ndata: " + event.encode() + "\n\n");
+            }
+        }
+
+        // Keeps the newest version and widens the date range to cover both notices
+        private static JsonObject coalesce(JsonObject older, JsonObject newer) {
+            JsonObject merged = new JsonObject()
+                    .put("entity", newer.getString("entity"))
+                    .put("version", Math.max(older.getLong("version"), newer.getLong("version")));
+            if (older.containsKey("from") && newer.containsKey("from")) {
+                merged.put("from", Math.min(older.getLong("from"), newer.getLong("from")))
+                        .put("to", Math.max(older.getLong("to"), newer.getLong("to")));
+            }
+            return merged;
+        }
+    }
+
+    @Override
+    public void addRoutes(Router router) {
+        router.get("/api/events").handler(this::handleSubscribe);
+    }
+}
@@ -0,0 +1,54 @@
+package com.shiftmanagerserver.handlers;
+
+import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.PasswordHasher;
+import com.shiftmanagerserver.service.ShiftService;
+import com.shiftmanagerserver.service.ShiftWeightSettingsService;
+import com.shiftmanagerserver.service.UserService;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Readiness probe: answers 200 once every service has its data in memory, 503 while it is still loading.
+ */
+public class HealthHandler implements Handler {
+    private final UserService userService;
+    private final ConstraintService constraintService;
+    private final ShiftService shiftService;
+    private final ShiftWeightSettingsService shiftWeightSettingsService;
+    private final PasswordHasher passwordHasher;
+
+    public HealthHandler(UserService userService, ConstraintService constraintService,
+                         ShiftService shiftService, ShiftWeightSettingsService shiftWeightSettingsService,
+                         PasswordHasher passwordHasher) {
+        this.userService = userService;
+        this.constraintService = constraintService;
+        this.shiftService = shiftService;
+        this.shiftWeightSettingsService = shiftWeightSettingsService;
+        this.passwordHasher = passwordHasher;
+    }
+
+    public void handleReady(RoutingContext ctx) {
+        JsonObject services = new JsonObject()
+                .put("users", userService.isInitialized())
+                .put("constraints", constraintService.isInitialized())
+                .put("shifts", shiftService.isInitialized())
+                .put("shiftWeightSettings", shiftWeightSettingsService.isInitialized());
+        boolean ready = services.stream().allMatch(entry -> Boolean.TRUE.equals(entry.getValue()));
+        ctx.response()
+                .setStatusCode(ready ? 200 : 503)
+                .putHeader("Content-Type", "application/json")
+                .putHeader("Cache-Control", "no-store")
+                .end(new JsonObject()
+                        .put("status", ready ? "ready" : "loading")
+                        .put("services", services)
+                        .put("passwordHashing", passwordHasher.metrics())
+                        .encode());
+    }
+
+    @Override
+    public void addRoutes(Router router) {
+        router.get("/api/health").handler(this::handleReady);
+    }
+}
@@ -12,15 +12,28 @@ import org.slf4j.LoggerFactory;
 public class JWTAuthHandler implements Handler<RoutingContext> {
     private static final Logger logger = LoggerFactory.getLogger(JWTAuthHandler.class);
     private final JWTService jwtService;
+    private final boolean allowQueryToken;
 
     public JWTAuthHandler(JWTService jwtService) {
+        this(jwtService, false);
+    }
+
+    /**
+     * @param allowQueryToken also accept the token as a {@code token} query parameter, for clients such as
+     *                        EventSource that can't set headers
+     */
+    public JWTAuthHandler(JWTService jwtService, boolean allowQueryToken) {
         this.jwtService = jwtService;
+        this.allowQueryToken = allowQueryToken;
     }
 
     @Override
     public void handle(RoutingContext ctx) {
         String authHeader = ctx.request().getHeader("Authorization");
-        
+        if (authHeader == null && allowQueryToken && ctx.request().getParam("token") != null) {
+            authHeader = "Bearer " + ctx.request().getParam("token");
+        }
+
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
             ctx.response()
                 .setStatusCode(401)
@@ -31,7 +44,9 @@ public class JWTAuthHandler implements Handler<RoutingContext> {
 
         String token = authHeader.substring(7); // Remove "Bearer " prefix
         
-        if (!jwtService.isTokenValid(token)) {
+        // Verified once per request, and only once per token while it is cached
+        JWTService.VerifiedToken verified = jwtService.verify(token);
+        if (verified == null) {
             ctx.response()
                 .setStatusCode(401)
                 .putHeader("Content-Type", "application/json")
@@ -39,10 +54,9 @@ public class JWTAuthHandler implements Handler<RoutingContext> {
             return;
         }
 
-        // Extract user information from token
-        String username = jwtService.getUsernameFromToken(token);
-        String role = jwtService.getRoleFromToken(token);
-        
+        String username = verified.username();
+        String role = verified.role();
+
         if (username == null || role == null) {
             ctx.response()
                 .setStatusCode(401)
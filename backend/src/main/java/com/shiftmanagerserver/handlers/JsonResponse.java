@@ -0,0 +1,116 @@
+package com.shiftmanagerserver.handlers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Writes JSON responses with Jackson straight into response buffers, without building the body as a string
+ * first. Collections are written element by element in chunks. When the connection's write queue is full,
+ * writing pauses until it drains, so a slow client never makes the whole body pile up in memory.
+ */
+final class JsonResponse {
+    private static final Logger logger = LoggerFactory.getLogger(JsonResponse.class);
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    private JsonResponse() {
+    }
+
+    static void send(RoutingContext ctx, ObjectMapper mapper, Object value) {
+        send(ctx, mapper, 200, value);
+    }
+
+    static void send(RoutingContext ctx, ObjectMapper mapper, int status, Object value) {
+        if (value instanceof Collection<?> items) {
+            sendArray(ctx, mapper, status, items);
+            return;
+        }
+        BufferOutputStream out = new BufferOutputStream(CHUNK_SIZE);
+        try {
+            mapper.writeValue(out, value);
+        } catch (IOException e) {
+            logger.error("Error serializing response", e);
+            ctx.response().setStatusCode(500).end();
+            return;
+        }
+        ctx.response()
+                .setStatusCode(status)
+                .putHeader("Content-Type", "application/json")
+                .end(out.take());
+    }
+
+    private static void sendArray(RoutingContext ctx, ObjectMapper mapper, int status, Collection<?> items) {
+        HttpServerResponse response = ctx.response();
+        response.setStatusCode(status).putHeader("Content-Type", "application/json");
+        BufferOutputStream out = new BufferOutputStream(CHUNK_SIZE);
+        JsonGenerator generator;
+        try {
+            generator = mapper.getFactory().createGenerator(out);
+            generator.writeStartArray();
+        } catch (IOException e) {
+            logger.error("Error serializing response", e);
+            response.setStatusCode(500).end();
+            return;
+        }
+        new ArrayWriter(response, mapper, generator, out, items.iterator()).run();
+    }
+
+    private static final class ArrayWriter {
+        private final HttpServerResponse response;
+        private final ObjectMapper mapper;
+        private final JsonGenerator generator;
+        private final BufferOutputStream out;
+        private final Iterator<?> items;
+        private boolean chunked;
+
+        ArrayWriter(HttpServerResponse response, ObjectMapper mapper, JsonGenerator generator,
+                    BufferOutputStream out, Iterator<?> items) {
+            this.response = response;
+            this.mapper = mapper;
+            this.generator = generator;
+            this.out = out;
+            this.items = items;
+        }
+
+        void run() {
+            try {
+                while (items.hasNext()) {
+                    if (response.closed()) {
+                        return;
+                    }
+                    mapper.writeValue(generator, items.next());
+                    if (out.size() >= CHUNK_SIZE) {
+                        if (!chunked) {
+                            // The length isn't known up front once the body spans several chunks
+                            response.setChunked(true);
+                            chunked = true;
+                        }
+                        response.write(out.take());
+                        if (response.writeQueueFull()) {
+                            response.drainHandler(v -> run());
+                            return;
+                        }
+                    }
+                }
+                generator.writeEndArray();
+                generator.close();
+                response.end(out.take());
+            } catch (IOException e) {
+                logger.error("Error serializing response", e);
+                if (chunked) {
+                    // Part of the body is already out, the status can't change anymore
+                    response.reset();
+                } else {
+                    response.setStatusCode(500).end();
+                }
+            }
+        }
+    }
+}
@@ -3,11 +3,12 @@ package com.shiftmanagerserver.handlers;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.shiftmanagerserver.entities.*;
 import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.ShiftQuery;
 import com.shiftmanagerserver.service.ShiftService;
 import com.shiftmanagerserver.service.ShiftWeightSettingsService;
 import com.shiftmanagerserver.service.UserService;
 import io.vertx.core.Future;
-import io.vertx.core.json.JsonArray;
+import io.vertx.core.MultiMap;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 import org.slf4j.Logger;
@@ -17,6 +18,7 @@ import java.util.*;
 
 public class ShiftHandler implements Handler {
     private static final Logger logger = LoggerFactory.getLogger(ShiftHandler.class);
+    private static final List<String> QUERY_PARAMS = List.of("from", "to", "user", "type", "cursor", "limit");
     private final ShiftService shiftService;
     private final UserService userService;
     private final ConstraintService constraintService;
@@ -36,15 +38,17 @@ public class ShiftHandler implements Handler {
     }
 
     public void getAllShifts(RoutingContext ctx) {
-        shiftService.getAllShifts()
-                .onSuccess(shifts -> {
-                    try {
-                        JsonArray arr = new JsonArray(objectMapper.writeValueAsString(shifts));
-                        ctx.response().putHeader("Content-Type", "application/json").end(arr.encode());
-                    } catch (Exception e) {
-                        logger.error("Error serializing shifts", e);
-                        ctx.response().setStatusCode(500).end();
+        MultiMap params = ctx.queryParams();
+        if (QUERY_PARAMS.stream().anyMatch(params::contains)) {
+            queryShifts(ctx, params);
+            return;
+        }
+        shiftService.getSnapshot()
+                .onSuccess(snapshot -> {
+                    if (ETags.notModified(ctx, ETags.of(snapshot.version(), null))) {
+                        return;
                     }
+                    JsonResponse.send(ctx, objectMapper, snapshot.data());
                 })
                 .onFailure(err -> {
                     logger.error("Error fetching all shifts", err);
@@ -52,6 +56,76 @@ public class ShiftHandler implements Handler {
                 });
     }
 
+    /**
+     * GET /api/shifts?from=&to=&user=&type=&limit=&cursor=. The body stays a plain array, the cursor for the
+     * next page, if there is one, is returned in the X-Next-Cursor header.
+     */
+    private void queryShifts(RoutingContext ctx, MultiMap params) {
+        ShiftQuery query;
+        try {
+            query = new ShiftQuery(
+                    parseDate(params.get("from")),
+                    parseDate(params.get("to")),
+                    params.get("user"),
+                    parseShiftType(params.get("type")),
+                    params.get("cursor"),
+                    params.contains("limit") ? Integer.parseInt(params.get("limit")) : 0);
+        } catch (Exception e) {
+            ctx.response().setStatusCode(400).end("Invalid query parameters");
+            return;
+        }
+        shiftService.queryShifts(query)
+                .onSuccess(result -> {
+                    if (ETags.notModified(ctx, ETags.of(result.version(), ctx.request().query()))) {
+                        return;
+                    }
+                    ShiftQuery.Page page = result.data();
+                    if (page.nextCursor() != null) {
+                        ctx.response().putHeader("X-Next-Cursor", page.nextCursor());
+                    }
+                    JsonResponse.send(ctx, objectMapper, page.shifts());
+                })
+                .onFailure(err -> {
+                    if (err instanceof IllegalArgumentException) {
+                        ctx.response().setStatusCode(400).end(err.getMessage());
+                        return;
+                    }
+                    logger.error("Error querying shifts", err);
+                    ctx.response().setStatusCode(500).end();
+                });
+    }
+
+    private Date parseDate(String value) throws java.text.ParseException {
+        return value == null || value.isEmpty() ? null : objectMapper.getDateFormat().parse(value);
+    }
+
+    // Accepts the Hebrew name the API uses elsewhere as well as the enum name
+    private static ShiftType parseShiftType(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        for (ShiftType type : ShiftType.values()) {
+            if (type.name().equalsIgnoreCase(value)) {
+                return type;
+            }
+        }
+        return ShiftType.fromHebrewName(value);
+    }
+
+    public void getRosterStats(RoutingContext ctx) {
+        shiftService.getRosterStats()
+                .onSuccess(stats -> {
+                    if (ETags.notModified(ctx, ETags.of(stats.version(), null))) {
+                        return;
+                    }
+                    JsonResponse.send(ctx, objectMapper, stats.data());
+                })
+                .onFailure(err -> {
+                    logger.error("Error fetching roster stats", err);
+                    ctx.response().setStatusCode(500).end();
+                });
+    }
+
     public void addShifts(RoutingContext ctx) {
         try {
             // Permission check: only admin can add shifts
@@ -223,18 +297,7 @@ public class ShiftHandler implements Handler {
                                     return shiftService.suggestShiftAssignment(relevantShifts, userConstraintMap);
                                 });
                     })
-                    .onSuccess(suggestedShifts -> {
-                        try {
-                            String responseJson = objectMapper.writeValueAsString(suggestedShifts);
-                            ctx.response()
-                                    .setStatusCode(200)
-                                    .putHeader("Content-Type", "application/json")
-                                    .end(responseJson);
-                        } catch (Exception e) {
-                            logger.error("Error serializing suggested shifts", e);
-                            ctx.response().setStatusCode(500).end();
-                        }
-                    })
+                    .onSuccess(suggestedShifts -> JsonResponse.send(ctx, objectMapper, suggestedShifts))
                     .onFailure(err -> {
                         logger.error("Error in suggestShiftAssignment", err);
                         ctx.response().setStatusCode(400).end();
@@ -331,6 +394,7 @@ public class ShiftHandler implements Handler {
     @Override
     public void addRoutes(io.vertx.ext.web.Router router) {
         router.get("/api/shifts").handler(this::getAllShifts);
+        router.get("/api/shifts/stats").handler(this::getRosterStats);
         router.post("/api/shifts").handler(this::addShifts);
         router.delete("/api/shifts").handler(this::deleteShift);
         router.delete("/api/shifts/week").handler(this::deleteShiftsForWeek); // updated
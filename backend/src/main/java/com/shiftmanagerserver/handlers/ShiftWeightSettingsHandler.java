@@ -22,11 +22,12 @@ public class ShiftWeightSettingsHandler implements Handler {
     }
 
     public void handleGetSettings(RoutingContext ctx) {
-        service.getSettings()
-            .onSuccess(settings -> {
-                ctx.response()
-                        .putHeader("Content-Type", "application/json")
-                        .end(JsonObject.mapFrom(settings).encode());
+        service.getSnapshot()
+            .onSuccess(snapshot -> {
+                if (ETags.notModified(ctx, ETags.of(snapshot.version(), null))) {
+                    return;
+                }
+                JsonResponse.send(ctx, objectMapper, snapshot.data());
             })
             .onFailure(err -> {
                 logger.error("Error getting settings", err);
@@ -121,10 +122,36 @@ public class ShiftWeightSettingsHandler implements Handler {
         }
     }
 
+    public void handleReload(RoutingContext ctx) {
+        // Permission check: only admin can reload settings
+        String role = ctx.user().principal().getString("role");
+        if (!"admin".equals(role)) {
+            ctx.response().setStatusCode(403).end("Admins only");
+            return;
+        }
+
+        service.reload()
+            .compose(v -> service.getVersion())
+            .onSuccess(version -> {
+                ctx.response()
+                        .setStatusCode(200)
+                        .putHeader("Content-Type", "application/json")
+                        .end(new JsonObject().put("message", "Settings reloaded").put("version", version).encode());
+            })
+            .onFailure(err -> {
+                logger.error("Error reloading settings", err);
+                ctx.response()
+                        .setStatusCode(500)
+                        .putHeader("Content-Type", "application/json")
+                        .end(new JsonObject().put("error", "Failed to reload settings").encode());
+            });
+    }
+
     @Override
     public void addRoutes(Router router) {
         router.get("/api/shift-weight-settings").handler(this::handleGetSettings);
         router.post("/api/shift-weight-settings/preset").handler(this::handleSavePreset);
         router.post("/api/shift-weight-settings/current-preset").handler(this::handleSetCurrentPreset);
+        router.post("/api/shift-weight-settings/reload").handler(this::handleReload);
     }
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.shiftmanagerserver.handlers;
+
+import io.vertx.core.Future;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.StaticHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the React bundle. Files with a content hash in their name never change, so browsers may keep them for
+ * a year without asking again; everything else, index.html above all, is revalidated on every load. When the
+ * build shipped a {@code .br} or {@code .gz} next to a file and the client accepts it, that variant is sent as is
+ * instead of compressing on the fly.
+ */
+public class StaticAssetsHandler implements Handler {
+    private static final String ROOT = "static";
+    private static final String INDEX = ROOT + "/index.html";
+    // e.g. main.5f1b3a2c.js, 453.a1b2c3d4.chunk.css, logo.6ce24c58023cc2f8fd88fe9d219db6c6.svg
+    private static final Pattern HASHED = Pattern.compile("\\.[0-9a-f]{8,}\\.(chunk\\.)?[a-z0-9]+$");
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+    private static final Variants NONE = new Variants(false, false);
+    // Far more than the bundle has files, only a bound in case it ever grows without one
+    private static final int MAX_CACHED = 4096;
+    // The bundle doesn't change while the server runs, so the variants of a file are looked up once. Only
+    // files that exist are remembered, requests for made-up paths can't grow the map
+    private final Map<String, Variants> variants = new ConcurrentHashMap<>();
+    private final StaticHandler files = StaticHandler.create(ROOT)
+            // Cache headers are set here, the static handler would mark everything immutable for a day
+            .setCachingEnabled(false)
+            .setSendVaryHeader(false);
+
+    public void handleAsset(RoutingContext ctx) {
+        String path = ctx.normalizedPath();
+        if (path.endsWith("/")) {
+            path += "index.html";
+        }
+        boolean hashed = HASHED.matcher(path).find();
+        ctx.response().putHeader(HttpHeaders.CACHE_CONTROL, hashed ? IMMUTABLE : REVALIDATE);
+        if (ctx.request().method() != HttpMethod.GET) {
+            files.handle(ctx);
+            return;
+        }
+
+        String file = ROOT + path;
+        String acceptEncoding = ctx.request().getHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean br = accepts(acceptEncoding, "br");
+        boolean gzip = accepts(acceptEncoding, "gzip");
+        // Responses differ by Accept-Encoding once a variant might be picked, caches have to know
+        ctx.response().putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        (br || gzip ? variants(ctx, file) : Future.succeededFuture(NONE))
+                .onComplete(ar -> {
+                    Variants found = ar.succeeded() ? ar.result() : NONE;
+                    String encoding = br && found.br() ? "br" : gzip && found.gzip() ? "gzip" : null;
+                    if (encoding == null) {
+                        files.handle(ctx);
+                        return;
+                    }
+                    String contentType = MimeMapping.getMimeTypeForFilename(file);
+                    if (contentType != null && contentType.startsWith("text")) {
+                        contentType += ";charset=UTF-8";
+                    }
+                    ctx.response()
+                            // Already compressed, the server's own compression leaves it alone
+                            .putHeader(HttpHeaders.CONTENT_ENCODING, encoding)
+                            .putHeader(HttpHeaders.CONTENT_TYPE, contentType != null ? contentType : "application/octet-stream")
+                            .sendFile(file + ("br".equals(encoding) ? ".br" : ".gz"));
+                });
+    }
+
+    // The SPA's own routes all get index.html, the client-side router takes it from there
+    public void handleFallback(RoutingContext ctx) {
+        ctx.response()
+                .putHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE)
+                .sendFile(INDEX);
+    }
+
+    private record Variants(boolean br, boolean gzip) {
+    }
+
+    private Future<Variants> variants(RoutingContext ctx, String file) {
+        Variants known = variants.get(file);
+        if (known != null) {
+            return Future.succeededFuture(known);
+        }
+        FileSystem fs = ctx.vertx().fileSystem();
+        return fs.exists(file).compose(exists -> {
+            if (!exists) {
+                return Future.succeededFuture(NONE);
+            }
+            return Future.all(fs.exists(file + ".br"), fs.exists(file + ".gz")).map(all -> {
+                Variants found = new Variants(all.resultAt(0), all.resultAt(1));
+                if (variants.size() < MAX_CACHED) {
+                    variants.put(file, found);
+                }
+                return found;
+            });
+        });
+    }
+
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            if (params[0].trim().equalsIgnoreCase(coding)) {
+                // q=0 means the client explicitly refuses it
+                return params.length < 2 || !params[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void addRoutes(Router router) {
+        router.route("/*").handler(this::handleAsset);
+        // Only if no static file matched
+        router.route().last().handler(this::handleFallback);
+    }
+}
@@ -4,7 +4,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.shiftmanagerserver.entities.User;
 import com.shiftmanagerserver.service.UserService;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
@@ -24,17 +23,12 @@ public class UserHandler implements Handler {
     }
 
     public void getAllUsers(RoutingContext ctx) {
-        userService.getAllUsers()
+        userService.getAllUsersSnapshot()
             .onSuccess(users -> {
-                try {
-                    JsonArray usersArray = new JsonArray(objectMapper.writeValueAsString(users));
-                    ctx.response()
-                            .putHeader("Content-Type", "application/json")
-                            .end(usersArray.encode());
-                } catch (Exception e) {
-                    logger.error("Error serializing users", e);
-                    ctx.response().setStatusCode(500).end();
+                if (ETags.notModified(ctx, ETags.of(users.version(), null))) {
+                    return;
                 }
+                JsonResponse.send(ctx, objectMapper, users.data());
             })
             .onFailure(err -> {
                 logger.error("Error fetching all users", err);
@@ -50,9 +44,7 @@ public class UserHandler implements Handler {
                     ctx.response().setStatusCode(404).end();
                     return;
                 }
-                ctx.response()
-                        .putHeader("Content-Type", "application/json")
-                        .end(JsonObject.mapFrom(user).encode());
+                JsonResponse.send(ctx, objectMapper, user);
             })
             .onFailure(err -> {
                 logger.error("Error fetching user by id", err);
@@ -66,10 +58,7 @@ public class UserHandler implements Handler {
             userService.createUser(user)
                 .onSuccess(success -> {
                     if (success) {
-                        ctx.response()
-                                .setStatusCode(201)
-                                .putHeader("Content-Type", "application/json")
-                                .end(JsonObject.mapFrom(user).encode());
+                        JsonResponse.send(ctx, objectMapper, 201, user);
                     } else {
                         ctx.response().setStatusCode(409).end("User already exists");
                     }
@@ -94,11 +83,13 @@ public class UserHandler implements Handler {
                         ctx.response().setStatusCode(404).end();
                         return;
                     }
-                    ctx.response()
-                            .putHeader("Content-Type", "application/json")
-                            .end(JsonObject.mapFrom(updated).encode());
+                    JsonResponse.send(ctx, objectMapper, updated);
                 })
                 .onFailure(err -> {
+                    if (err instanceof IllegalArgumentException) {
+                        ctx.response().setStatusCode(409).end(err.getMessage());
+                        return;
+                    }
                     logger.error("Error updating user", err);
                     ctx.response().setStatusCode(500).end();
                 });
@@ -1,15 +1,30 @@
 package com.shiftmanagerserver.modules;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
-import com.google.inject.TypeLiteral;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.shiftmanagerserver.dao.AsyncIO;
+import com.shiftmanagerserver.dao.CircuitBreaker;
+import com.shiftmanagerserver.dao.CircuitBreakerDao;
+import com.shiftmanagerserver.dao.CircuitBreakerUserScoreDao;
+import com.shiftmanagerserver.dao.JournalDao;
+import com.shiftmanagerserver.dao.LocalJournalDao;
+import com.shiftmanagerserver.dao.LocalLogDao;
+import com.shiftmanagerserver.dao.LocalLogStore;
+import com.shiftmanagerserver.dao.LocalUserScoreDao;
+import com.shiftmanagerserver.dao.PayloadCodec;
 import com.shiftmanagerserver.dao.RedisUserDao;
 import com.shiftmanagerserver.dao.RedisShiftsDao;
 import com.shiftmanagerserver.dao.RedisConstraintDao;
+import com.shiftmanagerserver.dao.RedisJournalDao;
 import com.shiftmanagerserver.dao.RedisShiftWeightSettingsDao;
+import com.shiftmanagerserver.dao.RedisUserScoreDao;
+import com.shiftmanagerserver.dao.UserScoreDao;
 import com.shiftmanagerserver.entities.User;
 import com.shiftmanagerserver.entities.AssignedShift;
 import com.shiftmanagerserver.entities.Constraint;
@@ -20,27 +35,39 @@ import com.shiftmanagerserver.handlers.ShiftHandler;
 import com.shiftmanagerserver.handlers.ShiftWeightSettingsHandler;
 import com.shiftmanagerserver.handlers.UserHandler;
 import com.shiftmanagerserver.service.ConstraintService;
+import com.shiftmanagerserver.service.JWTService;
 import com.shiftmanagerserver.service.ShiftService;
 import com.shiftmanagerserver.service.ShiftWeightSettingsService;
 import com.shiftmanagerserver.service.UserService;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.net.PemKeyCertOptions;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
 import io.vertx.ext.auth.jwt.JWTAuth;
 import io.vertx.ext.auth.jwt.JWTAuthOptions;
 import io.vertx.ext.auth.PubSecKeyOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.List;
 
 public class Module extends AbstractModule {
+    private static final Logger logger = LoggerFactory.getLogger(Module.class);
+    // The one Vertx of the process, every verticle instance and the services share it
     @Provides
+    @Singleton
     public Vertx provideVertx() {
         return Vertx.vertx();
     }
 
+    // Not a singleton, each HTTP verticle instance gets its own router
     @Provides
     public Router provideVertx(Vertx vertx) {
         Router router = Router.router(vertx);
@@ -50,8 +77,13 @@ public class Module extends AbstractModule {
                 .allowedMethod(HttpMethod.PUT)
                 .allowedMethod(HttpMethod.DELETE)
                 .allowedHeader("Content-Type")
-                .allowedHeader("Authorization"));
-        router.route().handler(BodyHandler.create());
+                .allowedHeader("Authorization")
+                .allowedHeader("If-None-Match")
+                .exposedHeader("ETag")
+                .exposedHeader("X-Next-Cursor")
+                .exposedHeader("X-Backup-Id"));
+        // A backup restore and a constraint import stream their uploads themselves instead of buffering them
+        router.routeWithRegex("(?!/api/backup/restore$|/api/constraints/import$).*").handler(BodyHandler.create());
         return router;
     }
 
@@ -62,46 +94,197 @@ public class Module extends AbstractModule {
         return mapper;
     }
 
+    // Compression covers the API and any asset without a precompressed variant. HTTP/2 is always available in
+    // clear text (prior knowledge or upgrade), and over TLS through ALPN once a certificate is configured.
+    @Provides
+    public HttpServerOptions httpServerOptions(@Named("http.compression") boolean compression,
+                                               @Named("http.compression.level") int compressionLevel,
+                                               @Named("tls.cert") String certPath,
+                                               @Named("tls.key") String keyPath) {
+        HttpServerOptions options = new HttpServerOptions()
+                .setCompressionSupported(compression)
+                .setCompressionLevel(compressionLevel)
+                .setHttp2ClearTextEnabled(true);
+        if (!certPath.isEmpty() && !keyPath.isEmpty()) {
+            options.setSsl(true)
+                    .setUseAlpn(true)
+                    .setKeyCertOptions(new PemKeyCertOptions().setCertPath(certPath).setKeyPath(keyPath));
+        }
+        return options;
+    }
+
+    // Shared by all HTTP verticle instances so a token verified on one event loop is cached for all of them
+    @Provides
+    @Singleton
+    public JWTService jwtService(@Named("jwt.secret") String secret, @Named("jwt.cache.size") int cacheSize) {
+        return new JWTService(secret, cacheSize);
+    }
+
+    @Provides
+    @Singleton
+    public PayloadCodec payloadCodec(@Named("redis.codec") String codec, @Named("redis.compression") String compression) {
+        return new PayloadCodec(PayloadCodec.Format.valueOf(codec.toUpperCase()),
+                PayloadCodec.Compression.valueOf(compression.toUpperCase()));
+    }
+
+    @Provides
+    @Singleton
+    public LocalLogStore localLogStore(@Named("local.storage.dir") String directory) {
+        return new LocalLogStore(Path.of(directory));
+    }
+
+    // One breaker for every Redis DAO, they all fail together when Redis is unreachable
+    @Provides
+    @Singleton
+    @Named("redis.breaker")
+    public CircuitBreaker redisBreaker(@Named("redis.breaker.failures") int failureThreshold,
+                                       @Named("redis.breaker.open.ms") long openMillis,
+                                       @Named("redis.call.timeout.ms") long callTimeoutMillis) {
+        return new CircuitBreaker("redis", failureThreshold, openMillis, callTimeoutMillis);
+    }
+
+    @Provides
+    @Singleton
+    @Named("user.dao")
+    public AsyncIO<Set<User>, Set<User>> userDao(@Named("storage.users") String storage, Provider<RedisUserDao> redisDao,
+                                                 @Named("redis.breaker") CircuitBreaker breaker,
+                                                 LocalLogStore store, ObjectMapper mapper, PayloadCodec codec,
+                                                 @Named("redis.key.prefix") String prefix) {
+        if (isLocal(storage)) {
+            return new LocalLogDao<>(store, mapper, codec, prefix + ":users", new TypeReference<>() {}, HashSet::new);
+        }
+        return new CircuitBreakerDao<>(redisDao.get(), breaker, "users");
+    }
+
+    @Provides
+    @Singleton
+    @Named("user.score.dao")
+    public UserScoreDao userScoreDao(@Named("storage.users") String storage, Provider<RedisUserScoreDao> redisDao,
+                                     @Named("redis.breaker") CircuitBreaker breaker,
+                                     LocalLogStore store, ObjectMapper mapper, PayloadCodec codec,
+                                     @Named("redis.key.prefix") String prefix) {
+        if (isLocal(storage)) {
+            return new LocalUserScoreDao(store, mapper, codec, prefix);
+        }
+        return new CircuitBreakerUserScoreDao(redisDao.get(), breaker);
+    }
+
+    @Provides
+    @Singleton
+    @Named("shift.dao")
+    public AsyncIO<List<AssignedShift>, List<AssignedShift>> shiftDao(@Named("storage.shifts") String storage, Provider<RedisShiftsDao> redisDao,
+                                                                      @Named("redis.breaker") CircuitBreaker breaker,
+                                                                      LocalLogStore store, ObjectMapper mapper, PayloadCodec codec,
+                                                                      @Named("redis.key.prefix") String prefix) {
+        if (isLocal(storage)) {
+            return new LocalLogDao<>(store, RedisShiftsDao.storageMapper(mapper), codec, prefix + ":shifts", new TypeReference<>() {}, ArrayList::new);
+        }
+        return new CircuitBreakerDao<>(redisDao.get(), breaker, "shifts");
+    }
+
+    @Provides
+    @Singleton
+    @Named("constraint.dao")
+    public AsyncIO<List<Constraint>, List<Constraint>> constraintDao(@Named("storage.constraints") String storage, Provider<RedisConstraintDao> redisDao,
+                                                                     @Named("redis.breaker") CircuitBreaker breaker,
+                                                                     LocalLogStore store, ObjectMapper mapper, PayloadCodec codec,
+                                                                     @Named("redis.key.prefix") String prefix) {
+        if (isLocal(storage)) {
+            return new LocalLogDao<>(store, mapper, codec, prefix + ":constraints", new TypeReference<>() {}, ArrayList::new);
+        }
+        return new CircuitBreakerDao<>(redisDao.get(), breaker, "constraints");
+    }
+
+    @Provides
+    @Singleton
+    @Named("shift.weight.settings.dao")
+    public AsyncIO<ShiftWeightSettings, ShiftWeightSettings> shiftWeightSettingsDao(@Named("storage.shift.weight.settings") String storage,
+                                                                                   Provider<RedisShiftWeightSettingsDao> redisDao,
+                                                                                   @Named("redis.breaker") CircuitBreaker breaker,
+                                                                                   LocalLogStore store, ObjectMapper mapper, PayloadCodec codec,
+                                                                                   @Named("redis.key.prefix") String prefix) {
+        if (isLocal(storage)) {
+            return new LocalLogDao<>(store, mapper, codec, prefix + ":shift_weight_settings", new TypeReference<>() {}, ShiftWeightSettings::new);
+        }
+        return new CircuitBreakerDao<>(redisDao.get(), breaker, "shift weight settings");
+    }
+
+    @Provides
+    @Singleton
+    @Named("journal.dao")
+    public JournalDao journalDao(@Named("storage.journal") String storage, Provider<RedisJournalDao> redisDao,
+                                 LocalLogStore store, @Named("redis.key.prefix") String prefix,
+                                 @Named("journal.retention") int retention) {
+        if (isLocal(storage)) {
+            return new LocalJournalDao(store, prefix, retention);
+        }
+        return redisDao.get();
+    }
+
+    private static boolean isLocal(String storage) {
+        return "local".equalsIgnoreCase(storage);
+    }
+
     @Override
     protected void configure() {
         bindConstant().annotatedWith(Names.named("api.basic-assignment.url")).to(System.getenv().getOrDefault("solver.url", "/findAssignment/basic"));
         bindConstant().annotatedWith(Names.named("solver.ip")).to(System.getenv().getOrDefault("solver.ip", "localhost"));
         bindConstant().annotatedWith(Names.named("solver.port")).to(Integer.parseInt(System.getenv().getOrDefault("solver.port", "8081")));
         bindConstant().annotatedWith(Names.named("PORT")).to(Integer.parseInt(System.getenv().getOrDefault("PORT", "8080")));
+        // HTTP verticle instances sharing the listen port, one per core by default
+        bindConstant().annotatedWith(Names.named("http.instances")).to(Integer.parseInt(System.getenv().getOrDefault("HTTP_INSTANCES", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        bindConstant().annotatedWith(Names.named("http.compression")).to(Boolean.parseBoolean(System.getenv().getOrDefault("HTTP_COMPRESSION", "true")));
+        bindConstant().annotatedWith(Names.named("http.compression.level")).to(Integer.parseInt(System.getenv().getOrDefault("HTTP_COMPRESSION_LEVEL", "6")));
+        // Only needed when the server terminates TLS itself, e.g. not behind the Heroku router
+        bindConstant().annotatedWith(Names.named("tls.cert")).to(System.getenv().getOrDefault("TLS_CERT_PATH", ""));
+        bindConstant().annotatedWith(Names.named("tls.key")).to(System.getenv().getOrDefault("TLS_KEY_PATH", ""));
+        bindConstant().annotatedWith(Names.named("jwt.secret")).to(System.getenv().getOrDefault("JWT_SECRET", "supersecretkeysupersecretkey123456supersecretkeysupersecretkey123456"));
+        bindConstant().annotatedWith(Names.named("jwt.cache.size")).to(Integer.parseInt(System.getenv().getOrDefault("JWT_CACHE_SIZE", "10000")));
         bindConstant().annotatedWith(Names.named("database.file")).to(System.getenv().getOrDefault("database.file", "/resources/db.json"));
         
         // Redis configuration
         String redisUrl = System.getenv().getOrDefault("REDIS_URL", "redis://default:@gusc1-moving-tetra-32048.upstash.io:32048");
         String redisToken = System.getenv().getOrDefault("REDIS_TOKEN", "AX0wASQgNDBhMTQ1ZGUtMGQxMy00ZTY3LTkyYWItZTI4NThjYzMxOWNiNDkyZWE1YTM3YjM5NDc0MzkyNzQzMTk3ZjU1NWEzNmM=");
         String redisKeyPrefix = System.getenv().getOrDefault("REDIS_KEY_PREFIX", "shiftmanager");
+        // Plain JSON by default, which older versions can read back after a rollback. Binary payloads are opt-in:
+        // set REDIS_CODEC=cbor and REDIS_COMPRESSION=deflate once no instance of an older version is left running.
+        // Both formats are always read, so switching back is safe at any time
+        String redisCodec = System.getenv().getOrDefault("REDIS_CODEC", "json");
+        String redisCompression = System.getenv().getOrDefault("REDIS_COMPRESSION", "none");
         
         System.out.println("=== Redis Configuration Debug ===");
         System.out.println("REDIS_URL: " + redisUrl);
         System.out.println("REDIS_TOKEN: " + (redisToken.isEmpty() ? "NOT_SET" : "SET"));
         System.out.println("REDIS_KEY_PREFIX: " + redisKeyPrefix);
         System.out.println("=================================");
+        logger.info("Redis payloads written as {} with {} compression", redisCodec, redisCompression);
         
         bindConstant().annotatedWith(Names.named("redis.url")).to(redisUrl);
         bindConstant().annotatedWith(Names.named("redis.token")).to(redisToken);
         bindConstant().annotatedWith(Names.named("redis.key.prefix")).to(redisKeyPrefix);
+        bindConstant().annotatedWith(Names.named("redis.codec")).to(redisCodec);
+        bindConstant().annotatedWith(Names.named("redis.compression")).to(redisCompression);
+        bindConstant().annotatedWith(Names.named("redis.breaker.failures")).to(Integer.parseInt(System.getenv().getOrDefault("REDIS_BREAKER_FAILURES", "5")));
+        bindConstant().annotatedWith(Names.named("redis.breaker.open.ms")).to(Long.parseLong(System.getenv().getOrDefault("REDIS_BREAKER_OPEN_MS", "5000")));
+        bindConstant().annotatedWith(Names.named("redis.call.timeout.ms")).to(Long.parseLong(System.getenv().getOrDefault("REDIS_CALL_TIMEOUT_MS", "3000")));
         
-        // Bind Redis DAO as the primary implementation for AsyncIO
-        bind(new TypeLiteral<AsyncIO<Set<User>, Set<User>>>() {})
-                .annotatedWith(Names.named("user.dao"))
-                .to(RedisUserDao.class);
-        
-        // Bind Redis DAOs for other entities
-        bind(new TypeLiteral<AsyncIO<List<AssignedShift>, List<AssignedShift>>>() {})
-            .annotatedWith(Names.named("shift.dao"))
-            .to(RedisShiftsDao.class);
-            
-        bind(new TypeLiteral<AsyncIO<List<Constraint>, List<Constraint>>>() {})
-            .annotatedWith(Names.named("constraint.dao"))
-            .to(RedisConstraintDao.class);
-            
-        bind(new TypeLiteral<AsyncIO<ShiftWeightSettings, ShiftWeightSettings>>() {})
-            .annotatedWith(Names.named("shift.weight.settings.dao"))
-            .to(RedisShiftWeightSettingsDao.class);
+        // Storage backend per entity type: "redis" (default) or "local" for the embedded log store
+        String defaultStorage = System.getenv().getOrDefault("STORAGE", "redis");
+        bindConstant().annotatedWith(Names.named("storage.users")).to(System.getenv().getOrDefault("STORAGE_USERS", defaultStorage));
+        bindConstant().annotatedWith(Names.named("storage.shifts")).to(System.getenv().getOrDefault("STORAGE_SHIFTS", defaultStorage));
+        bindConstant().annotatedWith(Names.named("storage.constraints")).to(System.getenv().getOrDefault("STORAGE_CONSTRAINTS", defaultStorage));
+        bindConstant().annotatedWith(Names.named("storage.shift.weight.settings")).to(System.getenv().getOrDefault("STORAGE_SHIFT_WEIGHT_SETTINGS", defaultStorage));
+        bindConstant().annotatedWith(Names.named("storage.journal")).to(System.getenv().getOrDefault("STORAGE_JOURNAL", defaultStorage));
+        // Changes kept for incremental backups, older backups can only be followed by a full one
+        bindConstant().annotatedWith(Names.named("journal.retention")).to(Integer.parseInt(System.getenv().getOrDefault("JOURNAL_RETENTION", "10000")));
+        bindConstant().annotatedWith(Names.named("local.storage.dir")).to(System.getenv().getOrDefault("LOCAL_STORAGE_DIR", "data"));
+
+        // Password hashing pool, logins beyond threads + queue are refused with 503
+        int defaultHashThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        bindConstant().annotatedWith(Names.named("bcrypt.threads")).to(Integer.parseInt(System.getenv().getOrDefault("BCRYPT_THREADS", String.valueOf(defaultHashThreads))));
+        bindConstant().annotatedWith(Names.named("bcrypt.queue")).to(Integer.parseInt(System.getenv().getOrDefault("BCRYPT_QUEUE", "32")));
+        // Stored hashes with another work factor are upgraded on the next successful login
+        bindConstant().annotatedWith(Names.named("bcrypt.log.rounds")).to(Integer.parseInt(System.getenv().getOrDefault("BCRYPT_LOG_ROUNDS", "10")));
         
         // Bind services
         bind(UserService.class);
@@ -0,0 +1,46 @@
+package com.shiftmanagerserver.service;
+
+import com.shiftmanagerserver.entities.Shift;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * Publishes a compact notice on the event bus after a service stored a change: which data changed, its new
+ * version and, for shifts, the range of dates touched. Clients refetch what they need.
+ */
+public final class ChangeEvents {
+    public static final String ADDRESS = "shiftmanager.changes";
+
+    private ChangeEvents() {
+    }
+
+    public static void publish(String entity, long version) {
+        publish(new JsonObject().put("entity", entity).put("version", version));
+    }
+
+    public static void publish(String entity, long version, List<? extends Shift> changed) {
+        JsonObject event = new JsonObject().put("entity", entity).put("version", version);
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (Shift shift : changed) {
+            if (shift.getDate() != null) {
+                from = Math.min(from, shift.getDate().getTime());
+                to = Math.max(to, shift.getDate().getTime());
+            }
+        }
+        if (from <= to) {
+            event.put("from", from).put("to", to);
+        }
+        publish(event);
+    }
+
+    private static void publish(JsonObject event) {
+        Context context = Vertx.currentContext();
+        if (context != null) {
+            context.owner().eventBus().publish(ADDRESS, event);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.shiftmanagerserver.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.shiftmanagerserver.dao.JournalDao;
+import com.shiftmanagerserver.dao.RedisShiftsDao;
+import com.shiftmanagerserver.entities.AssignedShift;
+import com.shiftmanagerserver.entities.Constraint;
+import com.shiftmanagerserver.entities.Shift;
+import com.shiftmanagerserver.entities.ShiftWeightSettings;
+import com.shiftmanagerserver.entities.User;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Numbers every stored change and appends it to the journal, so an incremental backup can return just what
+ * changed since an earlier backup. Each entry is one line of JSON describing the change to one dataset:
+ * shifts and constraints as the items removed and added, users, scores and settings as their new values.
+ * <p>
+ * Entries are appended in sequence order on a queue of their own and retried until stored, services never wait
+ * for them. When the journal can't keep up, or changes happen before it is loaded, {@code gap} entries mark
+ * what was lost; like the {@code restore} entry written after a restore, no incremental backup spans them.
+ */
+@Singleton
+public class ChangeJournal {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeJournal.class);
+    public static final String SHIFTS = "shifts";
+    public static final String CONSTRAINTS = "constraints";
+    public static final String USERS = "users";
+    public static final String SCORES = "scores";
+    public static final String SETTINGS = "settings";
+    public static final String RESTORE = "restore";
+    public static final String GAP = "gap";
+    private static final int MAX_PENDING = 10_000;
+    private static final long RETRY_MS = 1000;
+    private final JournalDao journalDao;
+    private final ObjectMapper mapper;
+    private final CommandQueue appends = new CommandQueue();
+    private final AtomicInteger pending = new AtomicInteger();
+    // Sequence of the newest entry, -1 until loaded
+    private long lastSeq = -1;
+    private boolean missed;
+    private Future<Void> loading;
+
+    /**
+     * The changes asked for can't be told anymore, only a full backup helps.
+     */
+    public static class ChangesUnavailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ChangesUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Entry(long seq, String entity, long time, List<?> removed, List<?> added, Object value) {
+    }
+
+    @Inject
+    public ChangeJournal(@Named("journal.dao") JournalDao journalDao, ObjectMapper mapper) {
+        this.journalDao = journalDao;
+        // Shifts refer to their preset by name and version, as in storage
+        this.mapper = RedisShiftsDao.storageMapper(mapper);
+    }
+
+    /**
+     * Reads the sequence to continue from. A failed load is retried by the next change.
+     */
+    public synchronized Future<Void> warmUp() {
+        if (lastSeq >= 0) {
+            return Future.succeededFuture();
+        }
+        if (loading == null) {
+            appends.bind(Vertx.currentContext());
+            loading = journalDao.lastSeq()
+                    .onComplete(ar -> {
+                        synchronized (this) {
+                            loading = null;
+                            if (ar.failed()) {
+                                logger.error("Error loading the change journal", ar.cause());
+                                return;
+                            }
+                            lastSeq = ar.result();
+                            logger.info("Change journal continues after entry {}", lastSeq);
+                            if (missed) {
+                                missed = false;
+                                append(GAP, null, null, null);
+                            }
+                        }
+                    })
+                    .mapEmpty();
+        }
+        return loading;
+    }
+
+    /**
+     * The sequence of the newest change, which a full backup taken now includes, or null while unknown.
+     */
+    public synchronized Long lastSeq() {
+        return lastSeq >= 0 ? lastSeq : null;
+    }
+
+    public void shiftsChanged(List<AssignedShift> removed, List<AssignedShift> added) {
+        List<Shift> keys = new ArrayList<>(removed.size());
+        removed.forEach(shift -> keys.add(new Shift(shift.getDate(), shift.getType())));
+        append(SHIFTS, keys, added, null);
+    }
+
+    public void constraintsChanged(List<Constraint> removed, List<Constraint> added) {
+        append(CONSTRAINTS, removed, added, null);
+    }
+
+    public void usersChanged(Collection<User> users) {
+        append(USERS, null, null, users);
+    }
+
+    public void scoresChanged(Map<String, Integer> scores) {
+        append(SCORES, null, null, scores);
+    }
+
+    public void settingsChanged(ShiftWeightSettings settings) {
+        append(SETTINGS, null, null, settings);
+    }
+
+    public void restored() {
+        append(RESTORE, null, null, null);
+    }
+
+    /**
+     * The stored entries after {@code seq}, oldest first. Fails with an {@link IllegalArgumentException} when
+     * {@code seq} was never handed out and with a {@link ChangesUnavailableException} when the changes since
+     * can't be told: dropped from the journal, lost, or followed by a restore.
+     */
+    public Future<List<Buffer>> changesSince(long seq) {
+        Long last = lastSeq();
+        if (last == null) {
+            return Future.failedFuture(new IllegalStateException("The change journal is not available"));
+        }
+        if (seq < 0 || seq > last) {
+            return Future.failedFuture(new IllegalArgumentException("Unknown backup " + seq));
+        }
+        return journalDao.readAfter(seq).map(entries -> {
+            if (entries == null) {
+                throw new ChangesUnavailableException("Changes since backup " + seq + " are no longer kept");
+            }
+            long expected = seq + 1;
+            for (Buffer buffer : entries) {
+                JsonNode entry = parse(buffer);
+                if (entry.path("seq").asLong() != expected) {
+                    throw new ChangesUnavailableException("Changes since backup " + seq + " are no longer kept");
+                }
+                String entity = entry.path("entity").asText();
+                if (GAP.equals(entity) || RESTORE.equals(entity)) {
+                    throw new ChangesUnavailableException("Changes after " + (expected - 1) + " were "
+                            + (GAP.equals(entity) ? "lost" : "replaced by a restore"));
+                }
+                expected++;
+            }
+            return entries;
+        });
+    }
+
+    private JsonNode parse(Buffer buffer) {
+        try {
+            return mapper.readTree(buffer.getBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unreadable journal entry", e);
+        }
+    }
+
+    private synchronized void append(String entity, List<?> removed, List<?> added, Object value) {
+        if (lastSeq < 0) {
+            missed = true;
+            warmUp();
+            return;
+        }
+        long seq = ++lastSeq;
+        Entry entry = new Entry(seq, entity, System.currentTimeMillis(), removed, added, value);
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            entry = new Entry(seq, GAP, entry.time(), null, null, null);
+        }
+        Buffer payload;
+        try {
+            payload = Buffer.buffer(mapper.writeValueAsBytes(entry));
+        } catch (JsonProcessingException e) {
+            logger.error("Error encoding journal entry {}", seq, e);
+            payload = Buffer.buffer("{\"seq\":" + seq + ",\"entity\":\"" + GAP + "\"}");
+        }
+        Buffer stored = payload;
+        appends.submit(() -> store(seq, stored)).onComplete(ar -> pending.decrementAndGet());
+    }
+
+    // Later entries wait behind this one, so it is retried until stored
+    private Future<Void> store(long seq, Buffer payload) {
+        Promise<Void> promise = Promise.promise();
+        Context context = Vertx.currentContext();
+        journalDao.append(seq, payload)
+                .onSuccess(promise::complete)
+                .onFailure(err -> {
+                    logger.warn("Error appending journal entry {}, retrying", seq, err);
+                    context.owner().setTimer(RETRY_MS, id -> store(seq, payload).onComplete(promise));
+                });
+        return promise.future();
+    }
+}
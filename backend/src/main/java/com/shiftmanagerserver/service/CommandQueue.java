@@ -0,0 +1,60 @@
+package com.shiftmanagerserver.service;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.function.Supplier;
+
+/**
+ * Serializes the mutations of one service. Commands run one at a time in submission order on the service's
+ * context, and a command starts only once the future returned by the previous one has completed, so every
+ * command sees the state the one before it published. Results are handed back on the submitter's context, so
+ * handlers running on other event loops continue on their own thread.
+ */
+public class CommandQueue {
+    private Context context;
+    private Future<Void> tail = Future.succeededFuture();
+
+    /**
+     * Pins the queue to a context. Until this is called the context of the first submitter is used.
+     */
+    public synchronized void bind(Context context) {
+        if (this.context == null) {
+            this.context = context;
+        }
+    }
+
+    public synchronized <T> Future<T> submit(Supplier<Future<T>> command) {
+        if (context == null) {
+            context = Vertx.currentContext();
+        }
+        Context target = context;
+        Context caller = Vertx.currentContext();
+        Promise<T> promise = Promise.promise();
+        Future<Void> previous = tail;
+        tail = promise.future().mapEmpty();
+        previous.onComplete(ignored -> {
+            if (target != null) {
+                target.runOnContext(v -> run(command, promise));
+            } else {
+                run(command, promise);
+            }
+        });
+        if (caller == null || caller == target) {
+            return promise.future();
+        }
+        Promise<T> result = Promise.promise();
+        promise.future().onComplete(ar -> caller.runOnContext(v -> result.handle(ar)));
+        return result.future();
+    }
+
+    private static <T> void run(Supplier<Future<T>> command, Promise<T> promise) {
+        try {
+            command.get().onComplete(promise);
+        } catch (Exception e) {
+            promise.fail(e);
+        }
+    }
+}
@@ -2,181 +2,272 @@ package com.shiftmanagerserver.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.shiftmanagerserver.dao.AsyncIO;
 import com.shiftmanagerserver.entities.Constraint;
 import com.shiftmanagerserver.entities.Shift;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+@Singleton
 public class ConstraintService {
     private static final Logger logger = LoggerFactory.getLogger(ConstraintService.class);
     private final ObjectMapper objectMapper;
     private final AsyncIO<List<Constraint>, List<Constraint>> constraintDao;
-    private List<Constraint> constraints;
-    private boolean initialized = false;
+    private final ChangeJournal journal;
+    private final CommandQueue commands = new CommandQueue();
+    // Immutable, replaced as a whole by commands once the new list is stored
+    private volatile Snapshot<List<Constraint>> snapshot;
+    private volatile boolean initialized = false;
+    private Future<Void> loading;
+
+    /**
+     * Outcome of an import: rows stored as new constraints, rows that changed the type of a user's existing
+     * constraint for the shift, and rows that changed nothing.
+     */
+    public record ImportResult(int added, int replaced, int duplicates) {
+    }
 
     @Inject
     public ConstraintService(ObjectMapper objectMapper,
-                           @Named("constraint.dao") AsyncIO<List<Constraint>, List<Constraint>> constraintDao) {
+                           @Named("constraint.dao") AsyncIO<List<Constraint>, List<Constraint>> constraintDao,
+                           ChangeJournal journal) {
         this.objectMapper = objectMapper;
         this.constraintDao = constraintDao;
-        this.constraints = new ArrayList<>();
+        this.journal = journal;
+        this.snapshot = Snapshot.initial(List.of());
         // Don't load constraints in constructor - wait for Redis to be ready
     }
 
+    /**
+     * Loads the stored constraints once. Concurrent callers share the same load and a failed load is retried by the next caller.
+     */
+    public synchronized Future<Void> warmUp() {
+        if (initialized) {
+            return Future.succeededFuture();
+        }
+        Future<Void> current = loading;
+        if (current == null) {
+            commands.bind(Vertx.currentContext());
+            current = loadConstraintsAsync();
+            loading = current;
+            current.onComplete(ar -> {
+                synchronized (this) {
+                    loading = null;
+                    initialized = ar.succeeded();
+                }
+            });
+        }
+        // A load that completes right away has already cleared loading
+        return current;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
     private Future<Void> loadConstraintsAsync() {
         Promise<Void> promise = Promise.promise();
         
         constraintDao.read()
             .onSuccess(loadedConstraints -> {
-                this.constraints = loadedConstraints;
+                this.snapshot = snapshot.next(List.copyOf(loadedConstraints));
                 logger.info("Successfully loaded {} constraints from Redis", loadedConstraints.size());
                 promise.complete();
             })
             .onFailure(err -> {
+                // Keep the constraints we have, an empty list here would be saved over the real ones
                 logger.error("Error loading constraints from Redis", err);
-                this.constraints = new ArrayList<>();
-                promise.complete(); // Complete with empty list rather than fail
+                promise.fail(err);
             });
             
         return promise.future();
     }
 
-    private Future<Void> saveConstraintsAsync() {
-        return constraintDao.write(constraints)
-            .onSuccess(v -> logger.info("Successfully saved {} constraints to Redis", constraints.size()))
+    /**
+     * Stores the new list and only then makes it visible, so a failed save leaves nothing to roll back.
+     */
+    private Future<Void> publish(List<Constraint> updated, List<Constraint> removed, List<Constraint> added) {
+        List<Constraint> next = List.copyOf(updated);
+        return constraintDao.write(next)
+            .onSuccess(v -> {
+                this.snapshot = snapshot.next(next);
+                logger.info("Successfully saved {} constraints to Redis", next.size());
+                ChangeEvents.publish("constraints", snapshot.version());
+                journal.constraintsChanged(removed, added);
+            })
             .onFailure(err -> logger.error("Error saving constraints to Redis", err));
     }
 
-    public Future<Constraint> createConstraint(Constraint constraint) {
-        Promise<Constraint> promise = Promise.promise();
-            loadConstraintsAsync()
-                .onSuccess(v -> {
-                    proceedWithCreateConstraint(constraint, promise);
-                })
-                .onFailure(err -> {
-                    logger.error("Error loading constraints", err);
-                    promise.fail(err);
-                });
-            
-        return promise.future();
+    /**
+     * Runs a mutation on the command queue once the constraints are loaded.
+     */
+    private <T> Future<T> mutate(Supplier<Future<T>> command) {
+        return warmUp()
+            .onFailure(err -> logger.error("Error loading constraints", err))
+            .compose(v -> commands.submit(command));
     }
 
-    private void proceedWithCreateConstraint(Constraint constraint, Promise<Constraint> promise) {
-        constraints.add(constraint);
-        
-        saveConstraintsAsync()
-            .onSuccess(v -> promise.complete(constraint))
+    /**
+     * Runs {@code replace}, which changes the stored constraints behind this service's back, while every mutation is
+     * held back, then reloads them. If the reload fails the next caller loads them again.
+     */
+    public <T> Future<T> replaceStored(Supplier<Future<T>> replace) {
+        return mutate(() -> replace.get().compose(result -> loadConstraintsAsync()
+            .onSuccess(v -> ChangeEvents.publish("constraints", snapshot.version()))
             .onFailure(err -> {
-                constraints.remove(constraint); // Rollback on failure
-                promise.fail(err);
-            });
+                synchronized (this) {
+                    initialized = false;
+                }
+            })
+            .map(result)));
+    }
+
+    public Future<Constraint> createConstraint(Constraint constraint) {
+        return mutate(() -> {
+            List<Constraint> updated = new ArrayList<>(snapshot.data());
+            updated.add(constraint);
+            return publish(updated, List.of(), List.of(constraint)).map(constraint);
+        });
     }
 
     public Future<List<Constraint>> getConstraintsByUserId(String userId) {
-        Promise<List<Constraint>> promise = Promise.promise();
+        return getConstraintsByUserIdSnapshot(userId).map(Snapshot::data);
+    }
 
-        loadConstraintsAsync()
-            .onSuccess(v -> {
-                List<Constraint> userConstraints = constraints.stream()
-                        .filter(c -> c.getUserId().equals(userId))
-                        .collect(Collectors.toList());
-                promise.complete(userConstraints);
-            })
-            .onFailure(err -> {
-                logger.error("Error loading constraints", err);
-                promise.fail(err);
-            });
-        return promise.future();
+    /**
+     * The user's constraints together with the version they were taken from.
+     */
+    public Future<Snapshot<List<Constraint>>> getConstraintsByUserIdSnapshot(String userId) {
+        return getSnapshot()
+            .map(current -> current.map(constraints -> constraints.stream()
+                    .filter(c -> c.getUserId().equals(userId))
+                    .collect(Collectors.toList())));
     }
 
     public Future<Boolean> deleteConstraint(String userId, Shift shift) {
-        Promise<Boolean> promise = Promise.promise();
-
-        loadConstraintsAsync()
-                .onSuccess(v -> {
-                    proceedWithDeleteConstraint(userId, shift, promise);
-                })
-                .onFailure(err -> {
-                    logger.error("Error loading constraints", err);
-                    promise.fail(err);
-                });
-            
-        return promise.future();
+        return mutate(() -> {
+            List<Constraint> updated = new ArrayList<>();
+            List<Constraint> removed = new ArrayList<>();
+            for (Constraint c : snapshot.data()) {
+                if (c.getUserId().equals(userId) && c.getShift().equals(shift)) {
+                    removed.add(c);
+                } else {
+                    updated.add(c);
+                }
+            }
+            if (removed.isEmpty()) {
+                return Future.succeededFuture(false);
+            }
+            return publish(updated, removed, List.of()).map(true);
+        });
     }
 
-    private void proceedWithDeleteConstraint(String userId, Shift shift, Promise<Boolean> promise) {
-        int initialSize = constraints.size();
-        constraints.removeIf(c ->
-                c.getUserId().equals(userId) &&
-                        c.getShift().equals(shift)
-        );
-        boolean removed = constraints.size() < initialSize;
-        
-        if (removed) {
-            saveConstraintsAsync()
-                .onSuccess(v -> promise.complete(true))
-                .onFailure(err -> {
-                    // Rollback on failure
-                    loadConstraintsAsync();
-                    promise.fail(err);
-                });
-        } else {
-            promise.complete(false);
-        }
+    /**
+     * The current constraints with their version. The list is immutable and shared, never copied per request.
+     */
+    public Future<Snapshot<List<Constraint>>> getSnapshot() {
+        return warmUp()
+                .map(v -> snapshot)
+                .onFailure(err -> logger.error("Error loading constraints", err));
     }
 
-    public Future<ArrayList<Constraint>> getAllConstraints() {
-            return loadConstraintsAsync()
-                .map(v ->
-                    new ArrayList<>(constraints))
-                .onFailure(err -> logger.error("Error loading constraints", err));
+    /**
+     * Version of the current constraints, raised by every change.
+     */
+    public Future<Long> getVersion() {
+        return getSnapshot().map(Snapshot::version);
+    }
+
+    public Future<List<Constraint>> getAllConstraints() {
+            return getSnapshot().map(Snapshot::data);
     }
 
     public Future<List<Constraint>> getUserConstraints(String username) {
-        return loadConstraintsAsync()
-                .map(v -> {
+        return getUserConstraintsSnapshot(username).map(Snapshot::data);
+    }
+
+    /**
+     * The constraints {@code username} may see together with the version they were taken from.
+     */
+    public Future<Snapshot<List<Constraint>>> getUserConstraintsSnapshot(String username) {
+        return getSnapshot()
+                .map(current -> current.map(constraints -> {
                     if(username.equals("admin")) {
-                        return new ArrayList<>(constraints);
+                        return constraints;
                     }
-                        return new ArrayList<>(constraints).stream().filter(c -> c.getUserId().equals(username)).collect(Collectors.toList());
-                })
-                .onFailure(err -> logger.error("Error loading constraints", err));
+                        return constraints.stream().filter(c -> c.getUserId().equals(username)).collect(Collectors.toList());
+                }));
     }
 
     public Future<List<Constraint>> addConstraints(List<Constraint> newConstraints) {
-        Promise<List<Constraint>> promise = Promise.promise();
-            loadConstraintsAsync()
-                .onSuccess(v -> {
-                    initialized = true;
-                    proceedWithAddConstraints(newConstraints, promise);
-                })
-                .onFailure(err -> {
-                    logger.error("Error loading constraints", err);
-                    promise.fail(err);
-                });
-            
-        return promise.future();
+        return mutate(() -> {
+            List<Constraint> updated = new ArrayList<>(snapshot.data());
+            updated.addAll(newConstraints);
+            return publish(updated, List.of(), newConstraints).map(newConstraints);
+        });
     }
 
-    private void proceedWithAddConstraints(List<Constraint> newConstraints, Promise<List<Constraint>> promise) {
-        constraints.addAll(newConstraints);
-        
-        saveConstraintsAsync()
-            .onSuccess(v -> promise.complete(newConstraints))
-            .onFailure(err -> {
-                // Rollback on failure
-                newConstraints.forEach(constraints::remove);
-                promise.fail(err);
-            });
+    /**
+     * Stores many constraints with a single write. A user has one constraint per shift: rows for a shift the user
+     * already has a constraint for replace it, rows identical to it are skipped, and of several rows for the same
+     * user and shift the last one wins.
+     */
+    public Future<ImportResult> importConstraints(List<Constraint> rows) {
+        Map<String, Constraint> latest = new LinkedHashMap<>();
+        for (Constraint row : rows) {
+            latest.put(key(row), row);
+        }
+        return mutate(() -> {
+            List<Constraint> current = snapshot.data();
+            Map<String, Constraint> index = new HashMap<>();
+            for (Constraint constraint : current) {
+                index.putIfAbsent(key(constraint), constraint);
+            }
+            Set<String> replacedKeys = new HashSet<>();
+            List<Constraint> added = new ArrayList<>();
+            for (Map.Entry<String, Constraint> entry : latest.entrySet()) {
+                Constraint row = entry.getValue();
+                Constraint existing = index.get(entry.getKey());
+                if (existing == null) {
+                    added.add(row);
+                } else if (existing.getConstraintType() != row.getConstraintType()) {
+                    replacedKeys.add(entry.getKey());
+                    added.add(row);
+                }
+            }
+            ImportResult result = new ImportResult(added.size() - replacedKeys.size(), replacedKeys.size(),
+                    rows.size() - added.size());
+            if (added.isEmpty()) {
+                return Future.succeededFuture(result);
+            }
+            List<Constraint> updated = new ArrayList<>(current.size() + added.size());
+            List<Constraint> removed = new ArrayList<>();
+            for (Constraint constraint : current) {
+                (replacedKeys.contains(key(constraint)) ? removed : updated).add(constraint);
+            }
+            updated.addAll(added);
+            return publish(updated, removed, added).map(result);
+        });
+    }
+
+    private static String key(Constraint constraint) {
+        return constraint.getUserId() + "|" + constraint.getShift().dayKey();
     }
 
     // Synchronous methods for backward compatibility
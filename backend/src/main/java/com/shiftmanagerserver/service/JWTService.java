@@ -1,6 +1,7 @@
 package com.shiftmanagerserver.service;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
@@ -9,16 +10,50 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class JWTService {
     private static final Logger logger = LoggerFactory.getLogger(JWTService.class);
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
     private final SecretKey secretKey;
+    private final JwtParser parser;
+    private final Map<String, VerifiedToken> verified;
     private static final long EXPIRATION_TIME = 48 * 60 * 60 * 1000; // 48 hours
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * Claims of a token whose signature has been checked.
+     */
+    public record VerifiedToken(String username, String role, long expiresAt) {
+    }
 
     public JWTService(String secret) {
+        this(secret, DEFAULT_CACHE_SIZE);
+    }
+
+    public JWTService(String secret, int cacheSize) {
         // Create a secret key from the provided secret
         this.secretKey = Keys.hmacShaKeyFor(secret.getBytes());
+        this.parser = Jwts.parserBuilder().setSigningKey(secretKey).build();
+        // LRU of verified tokens, keyed by a digest so the tokens themselves are not kept
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
     public String generateToken(String username, String role) {
@@ -35,13 +70,44 @@ public class JWTService {
                 .compact();
     }
 
+    /**
+     * Checks the token once and remembers the result until the token expires, so repeated requests with the
+     * same token skip parsing and signature verification. Returns null for an invalid or expired token.
+     */
+    public VerifiedToken verify(String token) {
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+        synchronized (verified) {
+            VerifiedToken cached = verified.get(key);
+            if (cached != null) {
+                if (cached.expiresAt() > now) {
+                    return cached;
+                }
+                verified.remove(key);
+                return null;
+            }
+        }
+        Claims claims = validateToken(token);
+        if (claims == null) {
+            return null;
+        }
+        Date expiration = claims.getExpiration();
+        VerifiedToken result = new VerifiedToken(claims.get("username", String.class), claims.get("role", String.class),
+                expiration != null ? expiration.getTime() : Long.MAX_VALUE);
+        synchronized (verified) {
+            verified.put(key, result);
+        }
+        return result;
+    }
+
+    private static String digest(String token) {
+        byte[] hash = SHA_256.get().digest(token.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
     public Claims validateToken(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(secretKey)
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
+            return parser.parseClaimsJws(token).getBody();
         } catch (Exception e) {
             logger.error("JWT validation failed", e);
             return null;
@@ -49,16 +115,16 @@ public class JWTService {
     }
 
     public String getUsernameFromToken(String token) {
-        Claims claims = validateToken(token);
-        return claims != null ? claims.get("username", String.class) : null;
+        VerifiedToken verifiedToken = verify(token);
+        return verifiedToken != null ? verifiedToken.username() : null;
     }
 
     public String getRoleFromToken(String token) {
-        Claims claims = validateToken(token);
-        return claims != null ? claims.get("role", String.class) : null;
+        VerifiedToken verifiedToken = verify(token);
+        return verifiedToken != null ? verifiedToken.role() : null;
     }
 
     public boolean isTokenValid(String token) {
-        return validateToken(token) != null;
+        return verify(token) != null;
     }
 } 
\ No newline at end of file
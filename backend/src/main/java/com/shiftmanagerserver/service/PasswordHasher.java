@@ -0,0 +1,121 @@
+package com.shiftmanagerserver.service;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs BCrypt on a small dedicated pool so password checks never block an event loop. The pool's queue is
+ * bounded: once it is full new requests are refused with {@link OverloadedException} instead of piling up
+ * behind a login storm.
+ */
+@Singleton
+public class PasswordHasher {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+
+    public static class OverloadedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OverloadedException() {
+            super("Too many password checks in progress, try again shortly");
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int logRounds;
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Inject
+    public PasswordHasher(@Named("bcrypt.threads") int threads,
+                          @Named("bcrypt.queue") int queueCapacity,
+                          @Named("bcrypt.log.rounds") int logRounds) {
+        this.logRounds = logRounds;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public Future<String> hash(String password) {
+        return submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(logRounds)));
+    }
+
+    public Future<Boolean> verify(String password, String hashed) {
+        return submit(() -> BCrypt.checkpw(password, hashed));
+    }
+
+    /**
+     * Whether the hash was made with a different work factor than the configured one.
+     */
+    public boolean needsRehash(String hashed) {
+        // Format is $2a$<rounds>$<salt and hash>
+        if (hashed == null || hashed.length() < 7 || hashed.charAt(0) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(hashed.substring(4, 6)) != logRounds;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public JsonObject metrics() {
+        return new JsonObject()
+                .put("threads", executor.getMaximumPoolSize())
+                .put("active", executor.getActiveCount())
+                .put("queued", executor.getQueue().size())
+                .put("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity())
+                .put("completed", executor.getCompletedTaskCount())
+                .put("rejected", rejected.get());
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        Context context = Vertx.currentContext();
+        Promise<T> promise = Promise.promise();
+        try {
+            executor.execute(() -> {
+                T result;
+                try {
+                    result = task.call();
+                } catch (Exception e) {
+                    complete(context, () -> promise.fail(e));
+                    return;
+                }
+                complete(context, () -> promise.complete(result));
+            });
+        } catch (RejectedExecutionException e) {
+            long total = rejected.incrementAndGet();
+            logger.warn("Password hashing queue is full, refusing request ({} refused so far)", total);
+            return Future.failedFuture(new OverloadedException());
+        }
+        return promise.future();
+    }
+
+    // Hand the result back on the caller's context
+    private static void complete(Context context, Runnable action) {
+        if (context == null) {
+            action.run();
+        } else {
+            context.runOnContext(v -> action.run());
+        }
+    }
+}
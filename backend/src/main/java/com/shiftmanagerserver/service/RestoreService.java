@@ -0,0 +1,392 @@
+package com.shiftmanagerserver.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.shiftmanagerserver.dao.AsyncIO;
+import com.shiftmanagerserver.dao.Replacement;
+import com.shiftmanagerserver.dao.UserScoreDao;
+import com.shiftmanagerserver.entities.AssignedShift;
+import com.shiftmanagerserver.entities.Constraint;
+import com.shiftmanagerserver.entities.Shift;
+import com.shiftmanagerserver.entities.ShiftWeightSettings;
+import com.shiftmanagerserver.entities.User;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Replaces all stored data with the contents of a backup archive as written by GET /api/backup.
+ * <p>
+ * The archive is parsed and validated entry by entry, element by element, before anything is written.
+ * The four datasets and the users' scores are then swapped in with one {@link Replacement#commitAll} while
+ * every service holds back its mutations, and the services reload what was stored. A broken archive changes nothing.
+ * <p>
+ * Incremental backups taken since the archive, as recorded by the {@link ChangeJournal}, are replayed over it
+ * before anything is stored. The archive's manifest names the last change it holds; changes it may hold
+ * beyond that are replayed again, which leaves the data as it was.
+ */
+@Singleton
+public class RestoreService {
+    private static final Logger logger = LoggerFactory.getLogger(RestoreService.class);
+    private static final String USERS = "users.json";
+    private static final String SHIFTS = "shifts.json";
+    private static final String CONSTRAINTS = "constraints.json";
+    private static final String SETTINGS = "shiftWeightSettings.json";
+    private static final String MANIFEST = "manifest.json";
+    private final ObjectMapper mapper;
+    private final UserService userService;
+    private final ShiftService shiftService;
+    private final ConstraintService constraintService;
+    private final ShiftWeightSettingsService shiftWeightSettingsService;
+    private final ChangeJournal journal;
+    private final AsyncIO<Set<User>, Set<User>> userDao;
+    private final UserScoreDao scoreDao;
+    private final AsyncIO<List<AssignedShift>, List<AssignedShift>> shiftDao;
+    private final AsyncIO<List<Constraint>, List<Constraint>> constraintDao;
+    private final AsyncIO<ShiftWeightSettings, ShiftWeightSettings> settingsDao;
+
+    public record Summary(int users, int shifts, int constraints) {
+    }
+
+    private record Archive(Long backupId, Set<User> users, List<AssignedShift> shifts, List<Constraint> constraints,
+                           ShiftWeightSettings settings) {
+    }
+
+    @Inject
+    public RestoreService(ObjectMapper mapper,
+                          UserService userService,
+                          ShiftService shiftService,
+                          ConstraintService constraintService,
+                          ShiftWeightSettingsService shiftWeightSettingsService,
+                          ChangeJournal journal,
+                          @Named("user.dao") AsyncIO<Set<User>, Set<User>> userDao,
+                          @Named("user.score.dao") UserScoreDao scoreDao,
+                          @Named("shift.dao") AsyncIO<List<AssignedShift>, List<AssignedShift>> shiftDao,
+                          @Named("constraint.dao") AsyncIO<List<Constraint>, List<Constraint>> constraintDao,
+                          @Named("shift.weight.settings.dao") AsyncIO<ShiftWeightSettings, ShiftWeightSettings> settingsDao) {
+        this.mapper = mapper;
+        this.userService = userService;
+        this.shiftService = shiftService;
+        this.constraintService = constraintService;
+        this.shiftWeightSettingsService = shiftWeightSettingsService;
+        this.journal = journal;
+        this.userDao = userDao;
+        this.scoreDao = scoreDao;
+        this.shiftDao = shiftDao;
+        this.constraintDao = constraintDao;
+        this.settingsDao = settingsDao;
+    }
+
+    /**
+     * Restores the backup archive at {@code path} with the incremental backups at {@code changes} replayed over
+     * it in order. Fails with an {@link IllegalArgumentException} when the archive is not a valid backup or the
+     * changes don't follow on from it.
+     */
+    public Future<Summary> restore(Path path, List<Path> changes) {
+        Vertx vertx = Vertx.currentContext().owner();
+        long start = System.currentTimeMillis();
+        return vertx.executeBlocking(() -> replay(read(path), changes), false)
+                .compose(archive -> replace(vertx, archive).map(v -> new Summary(
+                        archive.users().size(), archive.shifts().size(), archive.constraints().size())))
+                .onSuccess(summary -> {
+                    logger.info("Restored {} users, {} shifts and {} constraints in {} ms", summary.users(),
+                            summary.shifts(), summary.constraints(), System.currentTimeMillis() - start);
+                    // Changes from before the restore no longer lead to the stored data
+                    journal.restored();
+                    // The backup may predate the admin account
+                    userService.ensureAdminUser();
+                });
+    }
+
+    // Shifts go first: their mutations call into the users' queue, so holding the users first could deadlock.
+    // The innermost service reloads first, the shifts last, once the presets they refer to are back.
+    private Future<Void> replace(Vertx vertx, Archive archive) {
+        Map<String, Integer> scores = new HashMap<>();
+        archive.users().forEach(user -> scores.put(user.getName(), user.getScore()));
+        return shiftService.replaceStored(() ->
+                userService.replaceStored(() ->
+                        shiftWeightSettingsService.replaceStored(() ->
+                                constraintService.replaceStored(() ->
+                                        vertx.executeBlocking(() -> List.of(
+                                                        userDao.replacement(archive.users()),
+                                                        shiftDao.replacement(archive.shifts()),
+                                                        constraintDao.replacement(archive.constraints()),
+                                                        settingsDao.replacement(archive.settings()),
+                                                        scoreDao.replacement(scores)), false)
+                                                .compose(Replacement::commitAll)))));
+    }
+
+    private Archive read(Path path) throws IOException {
+        Set<User> users = null;
+        List<AssignedShift> shifts = null;
+        List<Constraint> constraints = null;
+        ShiftWeightSettings settings = null;
+        Long backupId = null;
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                try {
+                    switch (name) {
+                        case USERS -> users = readUsers(zip);
+                        case SHIFTS -> shifts = readArray(zip, SHIFTS, AssignedShift.class, RestoreService::checkShift);
+                        case CONSTRAINTS -> constraints = readArray(zip, CONSTRAINTS, Constraint.class, RestoreService::checkConstraint);
+                        case SETTINGS -> settings = readSettings(zip);
+                        case MANIFEST -> backupId = readManifest(zip);
+                        default -> logger.info("Ignoring unknown backup entry {}", name);
+                    }
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException(name + ": " + e.getOriginalMessage());
+                }
+            }
+        } catch (ZipException e) {
+            throw new IllegalArgumentException("Not a backup archive: " + e.getMessage());
+        }
+        require(users, USERS);
+        require(shifts, SHIFTS);
+        require(constraints, CONSTRAINTS);
+        require(settings, SETTINGS);
+        return new Archive(backupId, users, shifts, constraints, settings);
+    }
+
+    private Long readManifest(InputStream in) throws IOException {
+        JsonNode manifest = newParser(in).readValueAsTree();
+        if (manifest == null || !manifest.path("backupId").canConvertToLong()) {
+            throw new IllegalArgumentException(MANIFEST + ": missing backupId");
+        }
+        return manifest.path("backupId").asLong();
+    }
+
+    /**
+     * Applies the journal entries of every changes file after the archive's backup ID, in order. Entries the
+     * archive or an earlier file already covers are skipped, so overlapping incremental backups are fine, but
+     * a missing entry rejects the whole restore.
+     */
+    private Archive replay(Archive archive, List<Path> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return archive;
+        }
+        if (archive.backupId() == null) {
+            throw new IllegalArgumentException("The backup has no " + MANIFEST + ", changes can't be applied to it");
+        }
+        long applied = archive.backupId();
+        Map<String, User> users = new HashMap<>();
+        archive.users().forEach(user -> users.put(user.getName(), user));
+        // Every shift on a day and of a type is replaced together, as equal shifts are by the service
+        Map<String, List<AssignedShift>> shifts = new LinkedHashMap<>();
+        archive.shifts().forEach(shift -> shifts.computeIfAbsent(shift.dayKey(), k -> new ArrayList<>()).add(shift));
+        List<Constraint> constraints = new ArrayList<>(archive.constraints());
+        ShiftWeightSettings settings = archive.settings();
+        for (int i = 0; i < changes.size(); i++) {
+            try (BufferedReader reader = Files.newBufferedReader(changes.get(i))) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    String where = "changes " + (i + 1) + " line " + lineNumber;
+                    try {
+                        JsonNode entry = mapper.readTree(line);
+                        long seq = entry.path("seq").asLong(-1);
+                        if (seq <= applied) {
+                            continue;
+                        }
+                        if (seq != applied + 1) {
+                            throw new IllegalArgumentException("Changes " + (applied + 1) + " to " + (seq - 1) + " are missing");
+                        }
+                        switch (entry.path("entity").asText()) {
+                            case ChangeJournal.SHIFTS -> {
+                                List<AssignedShift> added = readItems(entry.path("added"), AssignedShift.class, where, RestoreService::checkShift);
+                                for (Shift removed : readItems(entry.path("removed"), Shift.class, where, RestoreService::checkShift)) {
+                                    shifts.remove(removed.dayKey());
+                                }
+                                // Already there when the archive was taken after the change
+                                added.forEach(shift -> shifts.remove(shift.dayKey()));
+                                added.forEach(shift -> shifts.computeIfAbsent(shift.dayKey(), k -> new ArrayList<>()).add(shift));
+                            }
+                            case ChangeJournal.CONSTRAINTS -> {
+                                for (Constraint removed : readItems(entry.path("removed"), Constraint.class, where, RestoreService::checkConstraint)) {
+                                    constraints.removeIf(c -> c.getUserId().equals(removed.getUserId())
+                                            && c.getShift().equals(removed.getShift()));
+                                }
+                                for (Constraint added : readItems(entry.path("added"), Constraint.class, where, RestoreService::checkConstraint)) {
+                                    // Already there when the archive was taken after the change
+                                    if (constraints.stream().noneMatch(c -> sameConstraint(c, added))) {
+                                        constraints.add(added);
+                                    }
+                                }
+                            }
+                            case ChangeJournal.USERS -> {
+                                users.clear();
+                                for (User user : readItems(entry.path("value"), User.class, where, RestoreService::checkUser)) {
+                                    users.put(user.getName(), user);
+                                }
+                            }
+                            case ChangeJournal.SCORES -> {
+                                if (!entry.path("value").isObject()) {
+                                    throw new IllegalArgumentException("expected scores");
+                                }
+                                Map<String, Integer> scores = mapper.convertValue(entry.path("value"), new TypeReference<>() {});
+                                scores.forEach((name, score) -> {
+                                    User user = users.get(name);
+                                    if (user != null) {
+                                        user.setScore(score);
+                                    }
+                                });
+                            }
+                            case ChangeJournal.SETTINGS -> {
+                                settings = mapper.treeToValue(entry.path("value"), ShiftWeightSettings.class);
+                                if (settings == null) {
+                                    throw new IllegalArgumentException("expected settings");
+                                }
+                            }
+                            case ChangeJournal.RESTORE, ChangeJournal.GAP ->
+                                    throw new IllegalArgumentException("Changes after " + applied + " can't be replayed, "
+                                            + "take a full backup from after change " + seq);
+                            default -> throw new IllegalArgumentException("unknown entity " + entry.path("entity").asText());
+                        }
+                        applied = seq;
+                    } catch (JsonProcessingException | IllegalArgumentException e) {
+                        String message = e instanceof JsonProcessingException json ? json.getOriginalMessage() : e.getMessage();
+                        throw new IllegalArgumentException(where + ": " + message);
+                    }
+                }
+            }
+        }
+        List<AssignedShift> replayed = new ArrayList<>();
+        shifts.values().forEach(replayed::addAll);
+        return new Archive(applied, new HashSet<>(users.values()), replayed, constraints, settings);
+    }
+
+    private <E> List<E> readItems(JsonNode array, Class<E> type, String where, Function<? super E, String> problem) throws JsonProcessingException {
+        List<E> items = new ArrayList<>();
+        if (array.isMissingNode()) {
+            return items;
+        }
+        if (!array.isArray()) {
+            throw new IllegalArgumentException("expected an array");
+        }
+        for (JsonNode node : array) {
+            E item = mapper.treeToValue(node, type);
+            String error = item == null ? "expected an object" : problem.apply(item);
+            if (error != null) {
+                throw new IllegalArgumentException("item " + items.size() + ": " + error);
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static boolean sameConstraint(Constraint a, Constraint b) {
+        return a.getUserId().equals(b.getUserId())
+                && a.getShift().equals(b.getShift())
+                && a.getConstraintType() == b.getConstraintType();
+    }
+
+    private Set<User> readUsers(InputStream in) throws IOException {
+        List<User> list = readArray(in, USERS, User.class, RestoreService::checkUser);
+        Set<String> names = new HashSet<>();
+        for (User user : list) {
+            if (!names.add(user.getName())) {
+                throw new IllegalArgumentException(USERS + ": duplicate user " + user.getName());
+            }
+        }
+        return new HashSet<>(list);
+    }
+
+    private ShiftWeightSettings readSettings(InputStream in) throws IOException {
+        ShiftWeightSettings settings = newParser(in).readValueAs(ShiftWeightSettings.class);
+        if (settings == null) {
+            throw new IllegalArgumentException(SETTINGS + ": expected a JSON object");
+        }
+        return settings;
+    }
+
+    /**
+     * Reads a JSON array one element at a time, rejecting the first element {@code problem} finds fault with.
+     */
+    private <E> List<E> readArray(InputStream in, String entry, Class<E> type, Function<E, String> problem) throws IOException {
+        JsonParser parser = newParser(in);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException(entry + ": expected a JSON array");
+        }
+        List<E> items = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            E item = parser.readValueAs(type);
+            String error = problem.apply(item);
+            if (error != null) {
+                throw new IllegalArgumentException(entry + " item " + items.size() + ": " + error);
+            }
+            items.add(item);
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new IllegalArgumentException(entry + " item " + items.size() + ": expected an object");
+        }
+        return items;
+    }
+
+    // The zip stream carries the following entries, parsing one must not close it
+    private JsonParser newParser(InputStream in) throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(in);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return parser;
+    }
+
+    private static String checkUser(User user) {
+        return user.getName() == null || user.getName().isBlank() ? "missing name" : null;
+    }
+
+    private static String checkShift(Shift shift) {
+        if (shift.getDate() == null || shift.getType() == null) {
+            return "missing date or type";
+        }
+        return null;
+    }
+
+    private static String checkConstraint(Constraint constraint) {
+        if (constraint.getUserId() == null || constraint.getUserId().isBlank()) {
+            return "missing userId";
+        }
+        if (constraint.getShift() == null || constraint.getShift().getDate() == null || constraint.getShift().getType() == null) {
+            return "missing shift date or type";
+        }
+        if (constraint.getConstraintType() == null) {
+            return "missing constraintType";
+        }
+        return null;
+    }
+
+    private static void require(Object value, String entry) {
+        if (value == null) {
+            throw new IllegalArgumentException("Backup has no " + entry);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.shiftmanagerserver.service;
+
+import com.shiftmanagerserver.entities.AssignedShift;
+import com.shiftmanagerserver.entities.Day;
+import com.shiftmanagerserver.entities.Shift;
+import com.shiftmanagerserver.entities.ShiftType;
+import com.shiftmanagerserver.entities.UserRosterStats;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Per-user aggregates of the assigned shifts, updated from each shift mutation instead of derived from
+ * the full history. Readers get an immutable view that is replaced after every change.
+ */
+public class RosterStats {
+    private final ToIntFunction<AssignedShift> weight;
+    private final ToIntFunction<AssignedShift> missedDays;
+    private final Function<Date, Day> dayOf;
+    private final Map<String, Accumulator> byUser = new HashMap<>();
+    private volatile Map<String, UserRosterStats> view = Map.of();
+
+    public RosterStats(ToIntFunction<AssignedShift> weight, ToIntFunction<AssignedShift> missedDays, Function<Date, Day> dayOf) {
+        this.weight = weight;
+        this.missedDays = missedDays;
+        this.dayOf = dayOf;
+    }
+
+    public synchronized void reset(List<AssignedShift> shifts) {
+        byUser.clear();
+        for (AssignedShift shift : shifts) {
+            accumulate(shift, 1);
+        }
+        Map<String, UserRosterStats> next = new HashMap<>();
+        byUser.forEach((username, stats) -> next.put(username, stats.toView(username)));
+        view = Collections.unmodifiableMap(next);
+    }
+
+    public synchronized void apply(List<AssignedShift> removed, List<AssignedShift> added) {
+        Map<String, UserRosterStats> next = new HashMap<>(view);
+        for (AssignedShift shift : removed) {
+            accumulate(shift, -1);
+        }
+        for (AssignedShift shift : added) {
+            accumulate(shift, 1);
+        }
+        for (AssignedShift shift : removed) {
+            refresh(next, shift.getAssignedUsername());
+        }
+        for (AssignedShift shift : added) {
+            refresh(next, shift.getAssignedUsername());
+        }
+        view = Collections.unmodifiableMap(next);
+    }
+
+    public Map<String, UserRosterStats> view() {
+        return view;
+    }
+
+    /**
+     * The user's latest shift strictly before {@code time}, or null.
+     */
+    public synchronized Shift lastShiftBefore(String username, long time) {
+        Accumulator stats = byUser.get(username);
+        if (stats == null) {
+            return null;
+        }
+        Map.Entry<Long, int[]> entry = stats.dates.lowerEntry(time);
+        return entry == null ? null : new Shift(new Date(entry.getKey()), latestType(entry.getValue()));
+    }
+
+    private void accumulate(AssignedShift shift, int sign) {
+        String username = shift.getAssignedUsername();
+        if (username == null || shift.getDate() == null) {
+            return;
+        }
+        Accumulator stats = byUser.computeIfAbsent(username, k -> new Accumulator());
+        int type = shift.getType() == null ? 0 : shift.getType().ordinal();
+        stats.totalShifts += sign;
+        stats.byType[type] += sign;
+        stats.byDay[dayOf.apply(shift.getDate()).ordinal()] += sign;
+        stats.weightedLoad += sign * weight.applyAsInt(shift);
+        stats.missedDays += sign * missedDays.applyAsInt(shift);
+        int[] types = stats.dates.computeIfAbsent(shift.getDate().getTime(), k -> new int[ShiftType.values().length]);
+        types[type] += sign;
+        if (isEmpty(types)) {
+            stats.dates.remove(shift.getDate().getTime());
+        }
+    }
+
+    private void refresh(Map<String, UserRosterStats> next, String username) {
+        if (username == null) {
+            return;
+        }
+        Accumulator stats = byUser.get(username);
+        if (stats == null || stats.totalShifts <= 0) {
+            byUser.remove(username);
+            next.remove(username);
+        } else {
+            next.put(username, stats.toView(username));
+        }
+    }
+
+    private static boolean isEmpty(int[] counts) {
+        for (int count : counts) {
+            if (count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Night comes after day on the same date
+    private static ShiftType latestType(int[] counts) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return ShiftType.values()[i];
+            }
+        }
+        return null;
+    }
+
+    private static final class Accumulator {
+        private int totalShifts;
+        private final int[] byType = new int[ShiftType.values().length];
+        private final int[] byDay = new int[Day.values().length];
+        private int weightedLoad;
+        private int missedDays;
+        // Shift counts per type for every date the user works
+        private final TreeMap<Long, int[]> dates = new TreeMap<>();
+
+        UserRosterStats toView(String username) {
+            Map<ShiftType, Integer> types = new EnumMap<>(ShiftType.class);
+            for (ShiftType type : ShiftType.values()) {
+                types.put(type, byType[type.ordinal()]);
+            }
+            Map<Day, Integer> days = new EnumMap<>(Day.class);
+            for (Day day : Day.values()) {
+                days.put(day, byDay[day.ordinal()]);
+            }
+            Map.Entry<Long, int[]> last = dates.lastEntry();
+            return new UserRosterStats(username, totalShifts, Collections.unmodifiableMap(types),
+                    Collections.unmodifiableMap(days), weightedLoad, missedDays,
+                    last == null ? null : new Date(last.getKey()), last == null ? null : latestType(last.getValue()));
+        }
+    }
+}
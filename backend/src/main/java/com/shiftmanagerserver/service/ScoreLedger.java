@@ -0,0 +1,214 @@
+package com.shiftmanagerserver.service;
+
+import com.shiftmanagerserver.entities.AssignedShift;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Append-only log of the score every shift adds to its user, positive when the shift is added and negative
+ * when it is removed. Each user's log is folded into a checkpoint, sorted by shift date with prefix sums,
+ * every {@link #CHECKPOINT_INTERVAL} entries. A user's current score is a running total. The score as of a
+ * date is a binary search in the checkpoint plus the short tail of entries logged since then.
+ */
+public class ScoreLedger {
+    static final int CHECKPOINT_INTERVAL = 256;
+
+    private record Entry(String username, long time, int delta, int count) {
+    }
+
+    private final Map<String, Series> byUser = new HashMap<>();
+    // Every shift, assigned or not
+    private final Series all = new Series();
+
+    /**
+     * Builds the ledger from scratch with one parallel sort of all shifts by date.
+     */
+    public static ScoreLedger rebuild(List<AssignedShift> shifts, ToIntFunction<AssignedShift> weight) {
+        Entry[] entries = new Entry[shifts.size()];
+        for (int i = 0; i < entries.length; i++) {
+            AssignedShift shift = shifts.get(i);
+            entries[i] = new Entry(shift.getAssignedUsername(), timeOf(shift), weight.applyAsInt(shift), 1);
+        }
+        Arrays.parallelSort(entries, Comparator.comparingLong(Entry::time));
+
+        ScoreLedger ledger = new ScoreLedger();
+        Map<String, List<Entry>> perUser = new HashMap<>();
+        for (Entry entry : entries) {
+            if (entry.username() != null) {
+                perUser.computeIfAbsent(entry.username(), k -> new ArrayList<>()).add(entry);
+            }
+        }
+        ledger.all.load(Arrays.asList(entries));
+        perUser.forEach((username, sorted) -> ledger.byUser.computeIfAbsent(username, k -> new Series()).load(sorted));
+        return ledger;
+    }
+
+    public synchronized void append(List<AssignedShift> removed, List<AssignedShift> added, ToIntFunction<AssignedShift> weight) {
+        for (AssignedShift shift : removed) {
+            append(shift, -weight.applyAsInt(shift), -1);
+        }
+        for (AssignedShift shift : added) {
+            append(shift, weight.applyAsInt(shift), 1);
+        }
+    }
+
+    private void append(AssignedShift shift, int delta, int count) {
+        Entry entry = new Entry(shift.getAssignedUsername(), timeOf(shift), delta, count);
+        all.append(entry);
+        if (entry.username() != null) {
+            byUser.computeIfAbsent(entry.username(), k -> new Series()).append(entry);
+        }
+    }
+
+    // A shift without a date still counts, as if before every other, the way ShiftService orders it
+    private static long timeOf(AssignedShift shift) {
+        return shift.getDate() != null ? shift.getDate().getTime() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Total weight of the user's shifts.
+     */
+    public synchronized int score(String username) {
+        Series series = byUser.get(username);
+        return series == null ? 0 : series.total;
+    }
+
+    /**
+     * Total weight of the user's shifts up to and including {@code time}.
+     */
+    public synchronized int scoreAsOf(String username, long time) {
+        Series series = byUser.get(username);
+        return series == null ? 0 : series.sumUntil(time, true);
+    }
+
+    /**
+     * Total weight of all shifts.
+     */
+    public synchronized int totalWeight() {
+        return all.total;
+    }
+
+    /**
+     * Total weight of all shifts strictly before {@code time}.
+     */
+    public synchronized int weightBefore(long time) {
+        return all.sumUntil(time, false);
+    }
+
+    /**
+     * Date of the user's earliest shift, or null when the user has none.
+     */
+    public synchronized Long firstShift(String username) {
+        Series series = byUser.get(username);
+        return series == null ? null : series.first();
+    }
+
+    private static final class Series {
+        // Checkpoint: distinct dates ascending, prefix[i] is the weight of everything before times[i]
+        private long[] times = new long[0];
+        private int[] prefix = new int[1];
+        private int[] counts = new int[0];
+        private final List<Entry> tail = new ArrayList<>();
+        private int total;
+
+        void append(Entry entry) {
+            tail.add(entry);
+            total += entry.delta();
+            if (tail.size() >= CHECKPOINT_INTERVAL) {
+                checkpoint();
+            }
+        }
+
+        int sumUntil(long time, boolean inclusive) {
+            int sum = prefix[bound(time, inclusive)];
+            for (Entry entry : tail) {
+                if (entry.time() < time || (inclusive && entry.time() == time)) {
+                    sum += entry.delta();
+                }
+            }
+            return sum;
+        }
+
+        Long first() {
+            checkpoint();
+            for (int i = 0; i < times.length; i++) {
+                if (counts[i] > 0) {
+                    return times[i];
+                }
+            }
+            return null;
+        }
+
+        void checkpoint() {
+            if (tail.isEmpty()) {
+                return;
+            }
+            List<Entry> merged = new ArrayList<>(times.length + tail.size());
+            for (int i = 0; i < times.length; i++) {
+                merged.add(new Entry(null, times[i], prefix[i + 1] - prefix[i], counts[i]));
+            }
+            merged.addAll(tail);
+            merged.sort(Comparator.comparingLong(Entry::time));
+            tail.clear();
+            load(merged);
+        }
+
+        /**
+         * Replaces the checkpoint with {@code sorted}, folding entries of the same date and dropping dates
+         * whose shifts were all removed again.
+         */
+        void load(List<Entry> sorted) {
+            long[] newTimes = new long[sorted.size()];
+            int[] newPrefix = new int[sorted.size() + 1];
+            int[] newCounts = new int[sorted.size()];
+            int n = 0;
+            int sum = 0;
+            int i = 0;
+            while (i < sorted.size()) {
+                long time = sorted.get(i).time();
+                int delta = 0;
+                int count = 0;
+                for (; i < sorted.size() && sorted.get(i).time() == time; i++) {
+                    delta += sorted.get(i).delta();
+                    count += sorted.get(i).count();
+                }
+                if (delta == 0 && count == 0) {
+                    continue;
+                }
+                sum += delta;
+                newTimes[n] = time;
+                newCounts[n] = count;
+                newPrefix[++n] = sum;
+            }
+            times = Arrays.copyOf(newTimes, n);
+            prefix = Arrays.copyOf(newPrefix, n + 1);
+            counts = Arrays.copyOf(newCounts, n);
+            int logged = 0;
+            for (Entry entry : tail) {
+                logged += entry.delta();
+            }
+            total = sum + logged;
+        }
+
+        // Index of the first checkpoint date after (inclusive) or at-or-after (exclusive) the given time
+        private int bound(long time, boolean inclusive) {
+            int low = 0;
+            int high = times.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < time || (inclusive && times[mid] == time)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
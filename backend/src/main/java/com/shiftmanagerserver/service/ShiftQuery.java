@@ -0,0 +1,18 @@
+package com.shiftmanagerserver.service;
+
+import com.shiftmanagerserver.entities.AssignedShift;
+import com.shiftmanagerserver.entities.ShiftType;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Filter for {@link ShiftService#queryShifts}. Null fields don't filter, {@code from} and {@code to} are inclusive.
+ * {@code cursor} continues after the last shift of a previous page.
+ */
+public record ShiftQuery(Date from, Date to, String username, ShiftType type, String cursor, int limit) {
+    public static final int MAX_LIMIT = 1000;
+
+    public record Page(List<AssignedShift> shifts, String nextCursor) {
+    }
+}
@@ -1,8 +1,10 @@
 package com.shiftmanagerserver.service;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.shiftmanagerserver.dao.AsyncIO;
+import com.shiftmanagerserver.dao.CircuitBreaker;
 import com.shiftmanagerserver.entities.*;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
@@ -10,237 +12,376 @@ import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.ConnectException;
 import java.util.*;
+import java.util.function.Supplier;
 
+@Singleton
 public class ShiftService {
     private static final Logger logger = LoggerFactory.getLogger(ShiftService.class);
     private final UserService userService;
     private final ShiftWeightSettingsService shiftWeightSettingsService;
     private final AsyncIO<List<AssignedShift>, List<AssignedShift>> shiftDao;
-    private List<AssignedShift> shifts;
-    private boolean initialized = false;
+    private final ChangeJournal journal;
+    private final CommandQueue commands = new CommandQueue();
+    // Immutable and ordered by date, replaced as a whole by commands once the new list is stored
+    private volatile Snapshot<List<AssignedShift>> snapshot;
+    // Score contributed by every shift, kept in step with the snapshot
+    private volatile ScoreLedger ledger = new ScoreLedger();
+    private final RosterStats rosterStats = new RosterStats(this::getShiftWeight, this::getMissedDays, this::getDayOfWeek);
+    // The roster stats under the version of the snapshot they were computed from
+    private volatile Snapshot<Map<String, UserRosterStats>> rosterView = Snapshot.initial(Map.of());
+    private volatile boolean initialized = false;
+    // Set when a shift change could neither be matched by the users' scores nor rolled back
+    private boolean scoresStale;
+    private Future<Void> loading;
 
     @Inject
     public ShiftService(@Named("shift.dao") AsyncIO<List<AssignedShift>, List<AssignedShift>> shiftDao,
                         ShiftWeightSettingsService shiftWeightSettingsService,
-                        UserService userService) {
+                        UserService userService,
+                        ChangeJournal journal) {
         this.shiftDao = shiftDao;
+        this.journal = journal;
         this.shiftWeightSettingsService = shiftWeightSettingsService;
         this.userService = userService;
-        this.shifts = new ArrayList<>();
+        this.snapshot = Snapshot.initial(List.of());
         // Don't load shifts in constructor - wait for Redis to be ready
     }
 
+    /**
+     * Loads the stored shifts once. Concurrent callers share the same load and a failed load is retried by the next caller.
+     */
+    public synchronized Future<Void> warmUp() {
+        if (initialized) {
+            return Future.succeededFuture();
+        }
+        Future<Void> current = loading;
+        if (current == null) {
+            commands.bind(Vertx.currentContext());
+            current = loadShiftsAsync();
+            loading = current;
+            current.onComplete(ar -> {
+                synchronized (this) {
+                    loading = null;
+                    initialized = ar.succeeded();
+                }
+            });
+        }
+        // A load that completes right away has already cleared loading
+        return current;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
     private Future<Void> loadShiftsAsync() {
         Promise<Void> promise = Promise.promise();
 
         shiftDao.read()
-                .onSuccess(loadedShifts -> shiftWeightSettingsService.getSettings().onSuccess(settings -> {
-                    ShiftWeightPreset currentPreset = settings.getCurrentPresetObject();
-                    for (AssignedShift shift : loadedShifts) {
-                        if (shift.getPreset() == null) {
-                            shift.setPreset(currentPreset);
-                        }
-                    }
-                    this.shifts = loadedShifts;
+                .onSuccess(loadedShifts -> shiftWeightSettingsService.resolvePresets(loadedShifts).onSuccess(v -> {
+                    this.ledger = ScoreLedger.rebuild(loadedShifts, this::getShiftWeight);
+                    rosterStats.reset(loadedShifts);
+                    this.snapshot = snapshot.next(sortedByDate(loadedShifts));
+                    this.rosterView = new Snapshot<>(snapshot.version(), rosterStats.view());
                     logger.info("Successfully loaded {} shifts from Redis", loadedShifts.size());
                     promise.complete();
                 }).onFailure(err -> {
-                    logger.error("Error loading shift weight settings", err);
-                    this.shifts = loadedShifts;
-                    promise.complete();
+                    // Without their presets every shift would weigh 1, and score changes would be worked out from that
+                    logger.error("Error resolving the presets of the loaded shifts", err);
+                    promise.fail(err);
                 }))
                 .onFailure(err -> {
+                    // Keep the shifts we have, an empty list here would be saved over the real ones
                     logger.error("Error loading shifts from Redis", err);
-                    this.shifts = new ArrayList<>();
-                    promise.complete(); // Complete with empty list rather than fail
+                    promise.fail(err);
                 });
 
         return promise.future();
     }
 
-    private Future<Void> saveShiftsAsync() {
-        return shiftDao.write(shifts)
-                .onSuccess(v -> logger.info("Successfully saved {} shifts to Redis", shifts.size()))
+    /**
+     * Stores the new list and only then makes it visible, so a failed save leaves nothing to roll back.
+     */
+    private Future<Void> publish(List<AssignedShift> updated, List<AssignedShift> removed, List<AssignedShift> added) {
+        List<AssignedShift> next = sortedByDate(updated);
+        return shiftDao.write(next)
+                .onSuccess(v -> {
+                    ledger.append(removed, added, this::getShiftWeight);
+                    rosterStats.apply(removed, added);
+                    this.snapshot = snapshot.next(next);
+                    this.rosterView = new Snapshot<>(snapshot.version(), rosterStats.view());
+                    logger.info("Successfully saved {} shifts to Redis", next.size());
+                    List<AssignedShift> changed = new ArrayList<>(removed);
+                    changed.addAll(added);
+                    ChangeEvents.publish("shifts", snapshot.version(), changed);
+                    journal.shiftsChanged(removed, added);
+                })
                 .onFailure(err -> logger.error("Error saving shifts to Redis", err));
     }
 
-    public Future<List<AssignedShift>> getAllShifts() {
-        Promise<List<AssignedShift>> promise = Promise.promise();
-
-        if (!initialized) {
-            loadShiftsAsync()
-                    .onSuccess(v -> {
-                        initialized = true;
-                        promise.complete(new ArrayList<>(shifts));
-                    })
-                    .onFailure(err -> {
-                        logger.error("Error loading shifts", err);
-                        promise.fail(err);
-                    });
-        } else {
-            promise.complete(new ArrayList<>(shifts));
-        }
-        return promise.future();
+    // Mostly sorted already, shifts are appended to a sorted list, so this is close to linear
+    private static List<AssignedShift> sortedByDate(List<AssignedShift> shifts) {
+        List<AssignedShift> sorted = new ArrayList<>(shifts);
+        sorted.sort(Comparator.comparingLong(ShiftService::timeOf).thenComparingInt(ShiftService::typeOf));
+        return List.copyOf(sorted);
     }
 
-    public Future<Void> addShifts(List<AssignedShift> newShifts) {
-        Promise<Void> promise = Promise.promise();
+    private static long timeOf(AssignedShift shift) {
+        return shift.getDate() != null ? shift.getDate().getTime() : Long.MIN_VALUE;
+    }
 
-        removeOldAssignedShifts(newShifts).onSuccess(v -> {
-            addAssignedShifts(newShifts).onSuccess(v2 -> promise.complete()).onFailure(promise::fail);
-        }).onFailure(promise::fail);
+    private static int typeOf(AssignedShift shift) {
+        return shift.getType() != null ? shift.getType().ordinal() : -1;
+    }
 
-        return promise.future();
+    /**
+     * Runs a mutation on the command queue once the shifts are loaded, after recalculating the users' scores if
+     * an earlier change left them out of step with the shifts.
+     */
+    private <T> Future<T> mutate(Supplier<Future<T>> command) {
+        return warmUp()
+                .onFailure(err -> logger.error("Error loading shifts", err))
+                .compose(v -> commands.submit(() -> repairScores().compose(v2 -> command.get())));
     }
 
-    private Future<Void> removeOldAssignedShifts(List<AssignedShift> shiftsToRemove) {
-        Promise<Void> promise = Promise.promise();
-        loadShiftsAsync()
+    private Future<Void> repairScores() {
+        if (!scoresStale) {
+            return Future.succeededFuture();
+        }
+        return recalculateScores()
                 .onSuccess(v -> {
-                    shifts.removeAll(shiftsToRemove);
-                    saveShiftsAsync()
-                            .onSuccess(promise::complete)
-                            .onFailure(promise::fail);
+                    scoresStale = false;
+                    logger.info("Recalculated user scores after a failed shift change");
                 })
-                .onFailure(err -> {
-                    logger.error("Error loading shifts", err);
-                    promise.fail(err);
-                }).compose(v -> userService.getAllUsers()).onSuccess(users -> {
-                    applyShiftWeightReductionToUsers(shiftsToRemove, users);
+                // Tried again before the next command
+                .recover(err -> {
+                    logger.error("Error recalculating user scores", err);
+                    return Future.succeededFuture();
                 });
-
-        return promise.future();
     }
 
-    private void applyShiftWeightReductionToUsers(List<AssignedShift> removedShifts, List<User> users) {
-        Map<String, User> userMap = new HashMap<>();
-        for (User u : users) userMap.put(u.getName(), u);
+    /**
+     * Stores the shift change, then the score deltas it causes. If the deltas were certainly not applied the
+     * change is rolled back, so the roster and the scores never disagree; should the rollback fail as well, the
+     * scores are recalculated from the roster before the next command. When it is unknown whether they were
+     * applied, e.g. after a timeout, the change is kept and the scores are recalculated from it right away.
+     */
+    private Future<Void> publishWithScores(List<AssignedShift> updated, List<AssignedShift> removed,
+                                           List<AssignedShift> added, Map<String, Integer> deltas) {
+        List<AssignedShift> previous = snapshot.data();
+        return publish(updated, removed, added)
+                .compose(v -> deltas.isEmpty() ? Future.succeededFuture() : userService.applyScoreDeltas(deltas)
+                        .recover(err -> {
+                            if (!definitelyNotApplied(err)) {
+                                logger.error("User scores may or may not have been updated, recalculating them", err);
+                                scoresStale = true;
+                                return repairScores();
+                            }
+                            logger.error("Error updating user scores, rolling back the shift change", err);
+                            return publish(previous, added, removed)
+                                    .onFailure(rollbackErr -> {
+                                        logger.error("Error rolling back the shift change, scores will be recalculated", rollbackErr);
+                                        scoresStale = true;
+                                    })
+                                    .transform(ar -> Future.failedFuture(err));
+                        }));
+    }
 
-        for (AssignedShift shift : removedShifts) {
-            if (shift.getAssignedUsername() != null) {
-                User user = userMap.get(shift.getAssignedUsername());
-                if (user != null) {
-                    int newScore = user.getScore() - getShiftWeight(shift);
-                    user.setScore(Math.max(0, newScore));
-                }
+    // Refused before anything was sent to the score store
+    private static boolean definitelyNotApplied(Throwable err) {
+        for (Throwable cause = err; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitBreaker.OpenCircuitException || cause instanceof ConnectException) {
+                return true;
             }
         }
+        return false;
     }
 
-    private Future<Void> addAssignedShifts(List<AssignedShift> shiftsToAdd) {
-        Promise<Void> promise = Promise.promise();
-        loadShiftsAsync()
-                .onSuccess(v -> {
-                    shifts.addAll(shiftsToAdd);
-                    saveShiftsAsync()
-                            .onSuccess(promise::complete)
-                            .onFailure(promise::fail);
-                })
+    /**
+     * Runs {@code replace}, which changes the stored shifts behind this service's back, while every mutation is
+     * held back, then reloads them. If the reload fails the next caller loads them again.
+     */
+    public <T> Future<T> replaceStored(Supplier<Future<T>> replace) {
+        return mutate(() -> replace.get().compose(result -> loadShiftsAsync()
+                .onSuccess(v -> ChangeEvents.publish("shifts", snapshot.version()))
                 .onFailure(err -> {
-                    logger.error("Error loading shifts", err);
-                    promise.fail(err);
-                }).compose(v -> userService.getAllUsers()).onSuccess(users -> {
-                    applyShiftWeightAdditionToUsers(shiftsToAdd, users);
-                });
+                    synchronized (this) {
+                        initialized = false;
+                    }
+                })
+                .map(result)));
+    }
 
-        return promise.future();
+    /**
+     * The current shifts with their version. The list is immutable and shared, never copied per request.
+     */
+    public Future<Snapshot<List<AssignedShift>>> getSnapshot() {
+        return warmUp()
+                .map(v -> snapshot)
+                .onFailure(err -> logger.error("Error loading shifts", err));
     }
 
-    private void applyShiftWeightAdditionToUsers(List<AssignedShift> addedShifts, List<User> users) {
-        Map<String, User> userMap = new HashMap<>();
-        for (User u : users) userMap.put(u.getName(), u);
+    /**
+     * Version of the current shifts, raised by every change.
+     */
+    public Future<Long> getVersion() {
+        return getSnapshot().map(Snapshot::version);
+    }
 
-        for (AssignedShift shift : addedShifts) {
-            if (shift.getAssignedUsername() != null) {
-                User user = userMap.get(shift.getAssignedUsername());
-                if (user != null) {
-                    int newScore = user.getScore() + getShiftWeight(shift);
-                    user.setScore(newScore);
+    public Future<List<AssignedShift>> getAllShifts() {
+        return getSnapshot().map(Snapshot::data);
+    }
+
+    /**
+     * Shifts matching the query in date order. The range is found by binary search on the date-ordered
+     * snapshot, so only shifts inside it are looked at. The page carries the version it was taken from.
+     */
+    public Future<Snapshot<ShiftQuery.Page>> queryShifts(ShiftQuery query) {
+        return getSnapshot().map(current -> current.map(shifts -> {
+            int start = query.from() != null ? lowerBound(shifts, query.from().getTime(), Integer.MIN_VALUE) : 0;
+            if (query.cursor() != null) {
+                long[] after = decodeCursor(query.cursor());
+                start = Math.max(start, lowerBound(shifts, after[0], (int) after[1] + 1));
+            }
+            int limit = query.limit() > 0 ? Math.min(query.limit(), ShiftQuery.MAX_LIMIT) : Integer.MAX_VALUE;
+            List<AssignedShift> page = new ArrayList<>();
+            String nextCursor = null;
+            for (int i = start; i < shifts.size(); i++) {
+                AssignedShift shift = shifts.get(i);
+                if (query.to() != null && timeOf(shift) > query.to().getTime()) {
+                    break;
+                }
+                if ((query.username() != null && !query.username().equals(shift.getAssignedUsername()))
+                        || (query.type() != null && query.type() != shift.getType())) {
+                    continue;
                 }
+                if (page.size() == limit) {
+                    nextCursor = encodeCursor(page.get(page.size() - 1));
+                    break;
+                }
+                page.add(shift);
+            }
+            return new ShiftQuery.Page(page, nextCursor);
+        }));
+    }
+
+    // First index whose (date, type) is not before the given one
+    private static int lowerBound(List<AssignedShift> shifts, long time, int type) {
+        int low = 0;
+        int high = shifts.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            AssignedShift shift = shifts.get(mid);
+            long midTime = timeOf(shift);
+            if (midTime < time || (midTime == time && typeOf(shift) < type)) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
+        return low;
     }
 
-    private int getShiftWeight(AssignedShift shift) {
-        return shift.getPreset().getWeights().stream()
-                .filter(w -> w.getDay() == getDayOfWeek(shift.getDate()) && w.getShiftType() == shift.getType())
-                .map(ShiftWeight::getWeight)
-                .findFirst().orElse(1);
+    private static String encodeCursor(AssignedShift last) {
+        String key = timeOf(last) + ":" + typeOf(last);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(java.nio.charset.StandardCharsets.UTF_8));
     }
 
-    public Future<Boolean> deleteShift(Date date, ShiftType type) {
-        Promise<Boolean> promise = Promise.promise();
-
-        if (!initialized) {
-            loadShiftsAsync()
-                    .onSuccess(v -> {
-                        initialized = true;
-                        proceedWithDeleteShift(date, type, promise);
-                    })
-                    .onFailure(err -> {
-                        logger.error("Error loading shifts", err);
-                        promise.fail(err);
-                    });
-        } else {
-            proceedWithDeleteShift(date, type, promise);
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), java.nio.charset.StandardCharsets.UTF_8);
+            int separator = key.indexOf(':');
+            return new long[]{Long.parseLong(key.substring(0, separator)), Integer.parseInt(key.substring(separator + 1))};
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
         }
+    }
 
-        return promise.future();
+    /**
+     * Per-user roster statistics, kept up to date by every shift mutation, with the version of the shifts they describe.
+     */
+    public Future<Snapshot<Map<String, UserRosterStats>>> getRosterStats() {
+        return warmUp()
+                .map(v -> rosterView)
+                .onFailure(err -> logger.error("Error loading shifts", err));
+    }
+
+    public Future<Void> addShifts(List<AssignedShift> newShifts) {
+        return mutate(() -> shiftWeightSettingsService.resolvePresets(newShifts).compose(v -> {
+            // Take back the weight of the shifts that are actually being replaced
+            List<AssignedShift> removed = new ArrayList<>();
+            List<AssignedShift> updated = new ArrayList<>();
+            for (AssignedShift s : snapshot.data()) {
+                if (newShifts.contains(s)) {
+                    removed.add(s);
+                } else {
+                    updated.add(s);
+                }
+            }
+            updated.addAll(newShifts);
+            return publishWithScores(updated, removed, newShifts, scoreDeltas(removed, newShifts));
+        }));
     }
 
-    private void proceedWithDeleteShift(Date date, ShiftType type, Promise<Boolean> promise) {
-        List<AssignedShift> toRemove = new ArrayList<>();
-        for (AssignedShift s : shifts) {
-            if (s.equals(new Shift(date, type))) {
-                toRemove.add(s);
+    // Weight taken back from the users of removed shifts and given to the users of added ones, as one change
+    private Map<String, Integer> scoreDeltas(List<AssignedShift> removedShifts, List<AssignedShift> addedShifts) {
+        Map<String, Integer> deltas = new HashMap<>();
+        for (AssignedShift shift : removedShifts) {
+            if (shift.getAssignedUsername() != null) {
+                deltas.merge(shift.getAssignedUsername(), -getShiftWeight(shift), Integer::sum);
             }
         }
-        shiftWeightSettingsService.getSettings().onSuccess(settings -> userService.getAllUsers().onSuccess(users -> {
-            for (AssignedShift shift : toRemove) {
-                if (shift.getAssignedUsername() != null) {
-                    User user = users.stream()
-                            .filter(u -> u.getName().equals(shift.getAssignedUsername()))
-                            .findFirst().orElse(null);
-                    if (user != null) {
-                        int weight = shift.getPreset().getWeights().stream()
-                                .filter(w -> w.getDay() == getDayOfWeek(shift.getDate()) && w.getShiftType() == shift.getType())
-                                .map(ShiftWeight::getWeight)
-                                .findFirst().orElse(1);
-                        int newScore = user.getScore() - weight;
-                        user.setScore(Math.max(0, newScore));
-                    }
+        for (AssignedShift shift : addedShifts) {
+            if (shift.getAssignedUsername() != null) {
+                deltas.merge(shift.getAssignedUsername(), getShiftWeight(shift), Integer::sum);
+            }
+        }
+        return deltas;
+    }
+
+    private int getMissedDays(AssignedShift shift) {
+        return shift.getType() == null ? 0 : calculateMissedDays(getDayOfWeek(shift.getDate()), shift.getType());
+    }
+
+    private int getShiftWeight(AssignedShift shift) {
+        if (shift.getPreset() == null) {
+            return 1;
+        }
+        return shift.getPreset().weightOf(getDayOfWeek(shift.getDate()), shift.getType());
+    }
+
+    public Future<Boolean> deleteShift(Date date, ShiftType type) {
+        return mutate(() -> {
+            Shift target = new Shift(date, type);
+            List<AssignedShift> toRemove = new ArrayList<>();
+            List<AssignedShift> updated = new ArrayList<>();
+            for (AssignedShift s : snapshot.data()) {
+                if (s.equals(target)) {
+                    toRemove.add(s);
+                } else {
+                    updated.add(s);
                 }
-                shifts.remove(shift);
             }
-            boolean removed = !toRemove.isEmpty();
-            if (removed) {
-                saveShiftsAsync()
-                        .onSuccess(v -> userService.saveUsersAsync().onSuccess(v2 -> promise.complete(true)).onFailure(promise::fail))
-                        .onFailure(promise::fail);
-            } else {
-                promise.complete(false);
+            if (toRemove.isEmpty()) {
+                return Future.succeededFuture(false);
             }
-        }).onFailure(promise::fail)).onFailure(promise::fail);
+            return publishWithScores(updated, toRemove, List.of(), scoreDeltas(toRemove, List.of()))
+                    .map(true);
+        });
     }
 
     public Future<List<AssignedShift>> suggestShiftAssignment
             (List<Shift> shifts, Map<User, List<Constraint>> userToConstraints) {
         Promise<List<AssignedShift>> promise = Promise.promise();
 
-        if (!initialized) {
-            loadShiftsAsync()
-                    .onSuccess(v -> {
-                        initialized = true;
-                        proceedWithSuggestAssignment(shifts, userToConstraints, promise);
-                    })
-                    .onFailure(err -> {
-                        logger.error("Error loading shifts", err);
-                        promise.fail(err);
-                    });
-        } else {
-            proceedWithSuggestAssignment(shifts, userToConstraints, promise);
-        }
+        warmUp()
+                .onSuccess(v -> proceedWithSuggestAssignment(shifts, userToConstraints, promise))
+                .onFailure(err -> {
+                    logger.error("Error loading shifts", err);
+                    promise.fail(err);
+                });
         return promise.future();
     }
 
@@ -265,7 +406,7 @@ public class ShiftService {
         shiftWeightSettingsService.getSettings().onSuccess(settings -> {
             // Fast greedy assignment first
             ShiftWeightPreset currentPreset = settings.getCurrentPresetObject();
-            List<ShiftWeight> shiftsWeight = currentPreset.getWeights();
+            List<ShiftWeight> shiftsWeight = new ArrayList<>(currentPreset.getWeights());
             List<Shift> shiftsToAssign = new ArrayList<>(shifts);
             shiftsWeight.sort((a, b) -> Integer.compare(b.getWeight(), a.getWeight()));
             // Sort shifts by weight (descending)
@@ -281,12 +422,20 @@ public class ShiftService {
                 String key = s.getDate().getTime() + ":" + s.getType();
                 if (seen.add(key)) uniqueShifts.add(s);
             }
-            // Prepare user state
+            // Prepare user state, starting from each user's last shift before this period
+            long periodStart = uniqueShifts.stream().mapToLong(s -> s.getDate().getTime()).min().orElse(Long.MAX_VALUE);
+            Map<String, Shift> previousShifts = new HashMap<>();
+            for (User user : users) {
+                Shift previous = rosterStats.lastShiftBefore(user.getName(), periodStart);
+                if (previous != null) {
+                    previousShifts.put(user.getName(), previous);
+                }
+            }
             Map<String, List<Shift>> userShifts = new HashMap<>();
             Map<String, Integer> userMissedDays = new HashMap<>();
             Map<String, Integer> userScores = new HashMap<>();
             for (User user : users) {
-                userShifts.put(user.getName(), new ArrayList<>());
+                userShifts.put(user.getName(), initialShifts(previousShifts, user));
                 userMissedDays.put(user.getName(), 0);
                 userScores.put(user.getName(), user.getScore());
             }
@@ -322,10 +471,7 @@ public class ShiftService {
                     // Assign
                     pastShifts.add(shift);
                     userMissedDays.put(userId, currentMissed + missedDaysForShift);
-                    int weight = currentPreset.getWeights().stream()
-                            .filter(w -> w.getDay() == getDayOfWeek(shift.getDate()) && w.getShiftType() == shift.getType())
-                            .map(ShiftWeight::getWeight)
-                            .findFirst().orElse(1);
+                    int weight = currentPreset.weightOf(getDayOfWeek(shift.getDate()), shift.getType());
                     userScores.put(userId, score + weight);
                     greedyAssignment.add(new AssignedShift(userId, shift, currentPreset));
                     assigned = true;
@@ -355,7 +501,7 @@ public class ShiftService {
                     Map<String, Integer> userMissedDaysBT = new HashMap<>();
                     Map<String, Integer> userScoresBT = new HashMap<>();
                     for (User user : users) {
-                        userShiftsBT.put(user.getName(), new ArrayList<>());
+                        userShiftsBT.put(user.getName(), initialShifts(previousShifts, user));
                         userMissedDaysBT.put(user.getName(), 0);
                         userScoresBT.put(user.getName(), user.getScore());
                     }
@@ -380,6 +526,15 @@ public class ShiftService {
         }).onFailure(promise::fail);
     }
 
+    private static List<Shift> initialShifts(Map<String, Shift> previousShifts, User user) {
+        List<Shift> shifts = new ArrayList<>();
+        Shift previous = previousShifts.get(user.getName());
+        if (previous != null) {
+            shifts.add(previous);
+        }
+        return shifts;
+    }
+
     private void assignShiftsBacktrackTimedFull(int idx, List<
                                                         Shift> shifts, List<User> users, Map<User, List<Constraint>> userToConstraints,
                                                 Map<String, List<Shift>> userShifts, Map<String, Integer> userMissedDays, Map<String, Integer> userScores,
@@ -432,10 +587,7 @@ public class ShiftService {
             }
             pastShifts.add(shift);
             userMissedDays.put(userId, currentMissed + missedDaysForShift);
-            int weight = currentPreset.getWeights().stream()
-                    .filter(w -> w.getDay() == getDayOfWeek(shift.getDate()) && w.getShiftType() == shift.getType())
-                    .map(ShiftWeight::getWeight)
-                    .findFirst().orElse(1);
+            int weight = currentPreset.weightOf(getDayOfWeek(shift.getDate()), shift.getType());
             userScores.put(userId, score + weight);
             currentAssignment.add(new AssignedShift(userId, shift, currentPreset));
             assignShiftsBacktrackTimedFull(idx + 1, shifts, users, userToConstraints, userShifts, userMissedDays, userScores, currentAssignment, bestFullAssignment, bestFullScoreDiff, bestPartialAssignment, bestPartialSize, currentPreset, startTime, maxMillis);
@@ -534,7 +686,6 @@ public class ShiftService {
      * @return Future<Integer> number of deleted shifts
      */
     public Future<Integer> deleteShiftsForWeek(Date weekStart) {
-        Promise<Integer> promise = Promise.promise();
         Calendar start = Calendar.getInstance();
         start.setTime(weekStart);
         start.set(Calendar.HOUR_OF_DAY, 0);
@@ -549,93 +700,56 @@ public class ShiftService {
         end.set(Calendar.MILLISECOND, 999);
         Date weekEnd = end.getTime();
 
-        if (!initialized) {
-            loadShiftsAsync()
-                    .onSuccess(v -> {
-                        initialized = true;
-                        proceedWithDeleteShiftsForWeek(weekStart, weekEnd, promise);
-                    })
-                    .onFailure(promise::fail);
-        } else {
-            proceedWithDeleteShiftsForWeek(weekStart, weekEnd, promise);
-        }
-        return promise.future();
+        return mutate(() -> deleteShiftsBetween(weekStart, weekEnd));
     }
 
-    private void proceedWithDeleteShiftsForWeek(Date weekStart, Date weekEnd, Promise<Integer> promise) {
-        shiftWeightSettingsService.getSettings().onSuccess(settings -> {
+    private Future<Integer> deleteShiftsBetween(Date weekStart, Date weekEnd) {
+        return shiftWeightSettingsService.getSettings().compose(settings -> {
             ShiftWeightPreset currentPreset = settings.getCurrentPresetObject();
-            userService.getAllUsers().onSuccess(users -> {
-                Map<String, User> userMap = new HashMap<>();
-                for (User u : users) userMap.put(u.getName(), u);
-                List<AssignedShift> toRemove = new ArrayList<>();
-                for (AssignedShift s : new ArrayList<>(shifts)) {
-                    Date d = s.getDate();
-                    if (d != null && !d.before(weekStart) && !d.after(weekEnd)) {
-                        // Update user score if assigned
-                        if (s.getAssignedUsername() != null) {
-                            User user = userMap.get(s.getAssignedUsername());
-                            if (user != null) {
-                                int weight = currentPreset.getWeights().stream()
-                                        .filter(w -> w.getDay() == getDayOfWeek(s.getDate()) && w.getShiftType() == s.getType())
-                                        .map(ShiftWeight::getWeight)
-                                        .findFirst().orElse(1);
-                                int newScore = user.getScore() - weight;
-                                user.setScore(Math.max(0, newScore));
-                            }
-                        }
-                        toRemove.add(s);
+            Map<String, Integer> deltas = new HashMap<>();
+            List<AssignedShift> updated = new ArrayList<>();
+            List<AssignedShift> removed = new ArrayList<>();
+            for (AssignedShift s : snapshot.data()) {
+                Date d = s.getDate();
+                if (d != null && !d.before(weekStart) && !d.after(weekEnd)) {
+                    // Update user score if assigned
+                    if (s.getAssignedUsername() != null) {
+                        int weight = currentPreset.weightOf(getDayOfWeek(s.getDate()), s.getType());
+                        deltas.merge(s.getAssignedUsername(), -weight, Integer::sum);
                     }
+                    removed.add(s);
+                } else {
+                    updated.add(s);
                 }
-                for (AssignedShift s : toRemove) {
-                    shifts.remove(s);
-                }
-                int deleted = toRemove.size();
-                saveShiftsAsync()
-                        .onSuccess(v -> userService.saveUsersAsync().onSuccess(v2 -> promise.complete(deleted)).onFailure(promise::fail))
-                        .onFailure(promise::fail);
-            }).onFailure(promise::fail);
-        }).onFailure(promise::fail);
+            }
+            return publishWithScores(updated, removed, List.of(), deltas)
+                    .map(removed.size());
+        });
     }
 
-    public Future<Void> recalculateAllUserScores() {
-        Promise<Void> promise = Promise.promise();
+    /**
+     * Total weight of the user's shifts up to and including the given date.
+     */
+    public Future<Integer> getUserScoreAsOf(String username, Date date) {
+        return warmUp().map(v -> ledger.scoreAsOf(username, date.getTime()));
+    }
 
-        loadShiftsAsync().onSuccess(v -> {
-            userService.getAllUsers().onSuccess(users -> {
-                Map<String, Integer> newUserScores = new HashMap<>();
-                for (User u : users) {
-                    // Find this user's first shift
-                    Optional<AssignedShift> firstShiftOpt = shifts.stream()
-                        .filter(s -> u.getName().equals(s.getAssignedUsername()))
-                        .min(Comparator.comparing(AssignedShift::getDate));
-                    Date firstShiftDate = firstShiftOpt.map(AssignedShift::getDate).orElse(null);
-                    // Sum all shift weights up until this user's first shift
-                    int sumPoints = shifts.stream()
-                        .filter(s -> firstShiftDate == null || s.getDate().before(firstShiftDate))
-                        .mapToInt(this::getShiftWeight)
-                        .sum();
-                    int initialScore = !users.isEmpty() ? sumPoints / users.size() : 0;
-                    newUserScores.put(u.getName(), initialScore);
-                }
-                for (AssignedShift s : shifts) {
-                    if (!newUserScores.containsKey(s.getAssignedUsername())) {
-                        continue;
-                    }
-                    newUserScores.put(s.getAssignedUsername(), newUserScores.get(s.getAssignedUsername()) + getShiftWeight(s));
-                }
-                for (User u : users) {
-                    OptionalDouble averageScore = users.stream().mapToInt(User::getScore).average();
-                    if (u.getScore() == 0) {
-                        u.setScore((int) averageScore.orElse(0));
-                    }
-                    u.setScore(newUserScores.getOrDefault(u.getName(), 0));
-                }
-                userService.saveUsersAsync().onSuccess(promise::complete).onFailure(promise::fail);
-            }).onFailure(promise::fail);
-        }).onFailure(promise::fail);
+    public Future<Void> recalculateAllUserScores() {
+        return mutate(this::recalculateScores);
+    }
 
-        return promise.future();
+    private Future<Void> recalculateScores() {
+        return userService.getAllUsers().compose(users -> {
+            ScoreLedger current = ledger;
+            Map<String, Integer> newUserScores = new HashMap<>();
+            for (User u : users) {
+                // Everyone starts with an equal share of the points handed out before their first shift
+                Long firstShift = current.firstShift(u.getName());
+                int sumPoints = firstShift == null ? current.totalWeight() : current.weightBefore(firstShift);
+                int initialScore = sumPoints / users.size();
+                newUserScores.put(u.getName(), initialScore + current.score(u.getName()));
+            }
+            return userService.saveScores(newUserScores);
+        });
     }
 }
-
@@ -2,139 +2,216 @@ package com.shiftmanagerserver.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.shiftmanagerserver.dao.AsyncIO;
+import com.shiftmanagerserver.entities.AssignedShift;
 import com.shiftmanagerserver.entities.ShiftWeightPreset;
 import com.shiftmanagerserver.entities.ShiftWeightSettings;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
+@Singleton
 public class ShiftWeightSettingsService {
     private static final Logger logger = LoggerFactory.getLogger(ShiftWeightSettingsService.class);
     private final ObjectMapper objectMapper;
     private final AsyncIO<ShiftWeightSettings, ShiftWeightSettings> settingsDao;
-    private ShiftWeightSettings settings;
-    private boolean initialized = false;
+    private final ChangeJournal journal;
+    private final CommandQueue commands = new CommandQueue();
+    // Never changed in place, commands publish a changed copy
+    private volatile Snapshot<ShiftWeightSettings> snapshot;
+    private volatile boolean initialized = false;
+    private Future<Void> loading;
 
     @Inject
     public ShiftWeightSettingsService(ObjectMapper objectMapper,
-                                      @Named("shift.weight.settings.dao") AsyncIO<ShiftWeightSettings, ShiftWeightSettings> settingsDao) {
+                                      @Named("shift.weight.settings.dao") AsyncIO<ShiftWeightSettings, ShiftWeightSettings> settingsDao,
+                                      ChangeJournal journal) {
         this.objectMapper = objectMapper;
         this.settingsDao = settingsDao;
-        this.settings = new ShiftWeightSettings();
+        this.journal = journal;
+        this.snapshot = Snapshot.initial(new ShiftWeightSettings());
         // Don't load settings in constructor - wait for Redis to be ready
     }
 
+    /**
+     * Loads the stored settings once. Concurrent callers share the same load and a failed load is retried by the next caller.
+     */
+    public synchronized Future<Void> warmUp() {
+        if (initialized) {
+            return Future.succeededFuture();
+        }
+        Future<Void> current = loading;
+        if (current == null) {
+            commands.bind(Vertx.currentContext());
+            current = loadSettingsAsync();
+            loading = current;
+            current.onComplete(ar -> {
+                synchronized (this) {
+                    loading = null;
+                    initialized = ar.succeeded();
+                }
+            });
+        }
+        // A load that completes right away has already cleared loading
+        return current;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
     private Future<Void> loadSettingsAsync() {
         Promise<Void> promise = Promise.promise();
 
         settingsDao.read()
                 .onSuccess(loadedSettings -> {
-                    this.settings = loadedSettings;
-                    logger.info("Successfully loaded shift weight settings from Redis");
+                    this.snapshot = snapshot.next(loadedSettings);
+                    logger.info("Successfully loaded shift weight settings from Redis (version {})", snapshot.version());
                     promise.complete();
                 })
                 .onFailure(err -> {
+                    // Keep the settings we have, defaults here would be saved over the real ones
                     logger.error("Error loading shift weight settings from Redis", err);
-                    this.settings = new ShiftWeightSettings();
-                    promise.complete(); // Complete with default settings rather than fail
+                    promise.fail(err);
                 });
 
         return promise.future();
     }
 
-    private Future<Void> saveSettingsAsync() {
-        return settingsDao.write(settings)
-                .onSuccess(v -> logger.info("Successfully saved shift weight settings to Redis"))
+    /**
+     * Stores the new settings and only then makes them visible, so a failed save leaves nothing to roll back.
+     */
+    private Future<Void> publish(ShiftWeightSettings next) {
+        return settingsDao.write(next)
+                .onSuccess(v -> {
+                    this.snapshot = snapshot.next(next);
+                    logger.info("Successfully saved shift weight settings to Redis");
+                    journal.settingsChanged(next);
+                })
                 .onFailure(err -> logger.error("Error saving shift weight settings to Redis", err));
     }
 
-    public Future<ShiftWeightSettings> getSettings() {
-        return loadSettingsAsync()
-                .map(v -> settings)
-                .onFailure(err -> logger.error("Error loading users", err));
+    /**
+     * Drops the cached settings and reads them again, for when the stored settings were changed elsewhere.
+     * Exposed to admins as POST /api/shift-weight-settings/reload.
+     */
+    public Future<Void> reload() {
+        return warmUp().compose(v -> commands.submit(this::loadSettingsAsync));
+    }
 
+    private <T> Future<T> mutate(Supplier<Future<T>> command) {
+        return warmUp()
+                .onFailure(err -> logger.error("Error loading settings", err))
+                .compose(v -> commands.submit(command));
     }
 
-    public Future<Void> saveSettings(ShiftWeightSettings newSettings) {
-        Promise<Void> promise = Promise.promise();
-        Map<String, ShiftWeightPreset> filtered = new HashMap<>(newSettings.getPresets());
-        filtered.remove("S");
-        newSettings = new ShiftWeightSettings(newSettings.getCurrentPresetObject(), filtered);
-        this.settings = newSettings;
-        saveSettingsAsync()
-                .onSuccess(promise::complete)
-                .onFailure(promise::fail);
-        return promise.future();
+    /**
+     * Runs {@code replace}, which changes the stored settings behind this service's back, while every mutation is
+     * held back, then reloads them. If the reload fails the next caller loads them again.
+     */
+    public <T> Future<T> replaceStored(Supplier<Future<T>> replace) {
+        return mutate(() -> replace.get().compose(result -> loadSettingsAsync()
+                .onFailure(err -> {
+                    synchronized (this) {
+                        initialized = false;
+                    }
+                })
+                .map(result)));
     }
 
-    public Future<Void> addPreset(ShiftWeightPreset preset) {
-        Promise<Void> promise = Promise.promise();
+    /**
+     * The current settings with their version. Never changed in place, so it can be shared with every reader.
+     */
+    public Future<Snapshot<ShiftWeightSettings>> getSnapshot() {
+        return warmUp()
+                .map(v -> snapshot)
+                .onFailure(err -> logger.error("Error loading shift weight settings", err));
+    }
 
-        if (!initialized) {
-            loadSettingsAsync()
-                    .onSuccess(v -> {
-                        initialized = true;
-                        proceedWithAddPreset(preset, promise);
-                    })
-                    .onFailure(err -> {
-                        logger.error("Error loading settings", err);
-                        promise.fail(err);
-                    });
-        } else {
-            proceedWithAddPreset(preset, promise);
-        }
+    /**
+     * Version of the current settings, raised by every change.
+     */
+    public Future<Long> getVersion() {
+        return getSnapshot().map(Snapshot::version);
+    }
 
-        return promise.future();
+    public Future<ShiftWeightSettings> getSettings() {
+        return getSnapshot().map(Snapshot::data);
     }
 
-    private void proceedWithAddPreset(ShiftWeightPreset preset, Promise<Void> promise) {
-        if (settings.getPresets() == null) {
-            settings.setPresets(new java.util.HashMap<>());
-        }
-        settings.getPresets().put(preset.getName(), preset);
+    public Future<Void> saveSettings(ShiftWeightSettings newSettings) {
+        return mutate(() -> {
+            Map<String, ShiftWeightPreset> filtered = new HashMap<>(newSettings.getPresets());
+            filtered.remove("S");
+            ShiftWeightSettings next = snapshot.data().copy();
+            next.replacePresets(filtered, newSettings.getCurrentPresetObject());
+            return publish(next);
+        });
+    }
 
-        saveSettingsAsync()
-                .onSuccess(v -> promise.complete())
-                .onFailure(err -> {
-                    // Rollback on failure
-                    settings.getPresets().remove(preset.getName());
-                    promise.fail(err);
-                });
+    public Future<Void> addPreset(ShiftWeightPreset preset) {
+        return mutate(() -> {
+            ShiftWeightSettings next = snapshot.data().copy();
+            next.registerPreset(preset);
+            return publish(next);
+        });
     }
 
     public Future<Void> setCurrentPreset(String currentPreset) {
-        Promise<Void> promise = Promise.promise();
-
-        if (!initialized) {
-            loadSettingsAsync()
-                    .onSuccess(v -> {
-                        initialized = true;
-                        proceedWithSetCurrentPreset(currentPreset, promise);
-                    })
-                    .onFailure(err -> {
-                        logger.error("Error loading settings", err);
-                        promise.fail(err);
-                    });
-        } else {
-            proceedWithSetCurrentPreset(currentPreset, promise);
-        }
-
-        return promise.future();
+        return mutate(() -> {
+            ShiftWeightSettings next = snapshot.data().copy();
+            next.setCurrentPresetObject(currentPreset);
+            return publish(next);
+        });
     }
 
-    private void proceedWithSetCurrentPreset(String currentPreset, Promise<Void> promise) {
-        settings.setCurrentPresetObject(currentPreset);
+    /**
+     * Points every shift at the shared preset record it refers to. Shifts that still embed a full
+     * preset (older data, or shifts sent by the client) get it interned into the preset history. When storing
+     * the extended history fails, the shifts and the settings are left as they were.
+     */
+    public Future<Void> resolvePresets(List<AssignedShift> shifts) {
+        return mutate(() -> {
+            ShiftWeightSettings next = snapshot.data().copy();
+            int knownPresets = next.getPresetHistory().size();
+            ShiftWeightPreset currentPreset = next.getCurrentPresetObject();
+            List<ShiftWeightPreset> resolved = new ArrayList<>(shifts.size());
+            for (AssignedShift shift : shifts) {
+                ShiftWeightPreset preset = null;
+                if (shift.getPreset() != null) {
+                    preset = next.internPreset(shift.getPreset());
+                } else if (shift.getPresetName() != null && shift.getPresetVersion() != null) {
+                    preset = next.findPreset(shift.getPresetName(), shift.getPresetVersion());
+                    if (preset == null) {
+                        logger.warn("Preset {} version {} not found, using the current preset", shift.getPresetName(), shift.getPresetVersion());
+                    }
+                }
+                resolved.add(preset != null ? preset : currentPreset);
+            }
+            if (next.getPresetHistory().size() == knownPresets) {
+                assignPresets(shifts, resolved);
+                return Future.succeededFuture();
+            }
+            // Stored shifts must never refer to a version the stored history doesn't have
+            return publish(next).onSuccess(v -> assignPresets(shifts, resolved));
+        });
+    }
 
-        saveSettingsAsync()
-                .onSuccess(v -> promise.complete())
-                .onFailure(promise::fail);
+    private static void assignPresets(List<AssignedShift> shifts, List<ShiftWeightPreset> presets) {
+        for (int i = 0; i < shifts.size(); i++) {
+            shifts.get(i).setPreset(presets.get(i));
+        }
     }
 
     // Synchronous methods for backward compatibility
@@ -0,0 +1,25 @@
+package com.shiftmanagerserver.service;
+
+import java.util.function.Function;
+
+/**
+ * An immutable, versioned view of a service's data. Readers share it without copying; every change
+ * publishes a new snapshot with the next version.
+ */
+public record Snapshot<T>(long version, T data) {
+
+    public static <T> Snapshot<T> initial(T data) {
+        return new Snapshot<>(0, data);
+    }
+
+    public Snapshot<T> next(T data) {
+        return new Snapshot<>(version + 1, data);
+    }
+
+    /**
+     * A view derived from this snapshot's data, under the same version.
+     */
+    public <R> Snapshot<R> map(Function<? super T, ? extends R> f) {
+        return new Snapshot<>(version, f.apply(data));
+    }
+}
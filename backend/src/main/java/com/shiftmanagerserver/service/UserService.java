@@ -2,307 +2,400 @@ package com.shiftmanagerserver.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.shiftmanagerserver.dao.AsyncIO;
+import com.shiftmanagerserver.dao.UserScoreDao;
 import com.shiftmanagerserver.entities.User;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
-import org.mindrot.jbcrypt.BCrypt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.Optional;
+import java.util.function.Supplier;
 
+@Singleton
 public class UserService {
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
     private final ObjectMapper objectMapper;
     private final AsyncIO<Set<User>, Set<User>> userDao;
-    private Set<User> users;
-    private boolean initialized = false;
+    private final UserScoreDao scoreDao;
+    private final PasswordHasher passwordHasher;
+    private final ChangeJournal journal;
+    private final CommandQueue commands = new CommandQueue();
+    // Users keyed by name. Immutable, and so are the users in it: commands publish a new map with changed copies
+    private volatile Snapshot<Map<String, User>> snapshot;
+    private volatile boolean initialized = false;
+    private Future<Void> loading;
 
     @Inject
     public UserService(ObjectMapper objectMapper,
-                      @Named("user.dao") AsyncIO<Set<User>, Set<User>> userDao) {
+                      @Named("user.dao") AsyncIO<Set<User>, Set<User>> userDao,
+                      @Named("user.score.dao") UserScoreDao scoreDao,
+                      PasswordHasher passwordHasher,
+                      ChangeJournal journal) {
         this.objectMapper = objectMapper;
         this.userDao = userDao;
-        this.users = new HashSet<>();
+        this.scoreDao = scoreDao;
+        this.passwordHasher = passwordHasher;
+        this.journal = journal;
+        this.snapshot = Snapshot.initial(Map.of());
     }
 
     public void ensureAdminUser() {
         String adminUsername = System.getenv().getOrDefault("ADMIN_USERNAME", "admin");
         String adminPassword = System.getenv().getOrDefault("ADMIN_PASSWORD", "P@ssw0rd");
-        loadUsersAsync().onSuccess(v -> {
-            Optional<User> adminOpt = users.stream().filter(u -> u.getName().equals(adminUsername)).findFirst();
-            if (adminOpt.isEmpty()) {
+        mutate(() -> {
+            if (findUser(adminUsername) != null) {
+                logger.info("Admin user '{}' already exists.", adminUsername);
+                return Future.succeededFuture();
+            }
+            return passwordHasher.hash(adminPassword).compose(hashed -> {
                 User admin = new User();
                 admin.setName(adminUsername);
-                admin.setPassword(org.mindrot.jbcrypt.BCrypt.hashpw(adminPassword, org.mindrot.jbcrypt.BCrypt.gensalt()));
+                admin.setPassword(hashed);
                 admin.setRole("admin");
                 admin.setScore(0);
-                users.add(admin);
-                saveUsersAsync().onSuccess(v2 ->
-                    logger.info("Admin user '{}' created from environment variable.", adminUsername)
-                ).onFailure(err ->
-                    logger.error("Failed to save admin user to Redis", err)
-                );
-            } else {
-                logger.info("Admin user '{}' already exists.", adminUsername);
-            }
-        }).onFailure(err -> logger.error("Failed to load users for admin check", err));
+                Map<String, User> updated = new HashMap<>(snapshot.data());
+                updated.put(adminUsername, admin);
+                return publish(updated)
+                    .compose(v -> scoreDao.writeScores(Map.of(adminUsername, 0)))
+                    .onSuccess(v -> logger.info("Admin user '{}' created from environment variable.", adminUsername));
+            });
+        }).onFailure(err -> logger.error("Failed to ensure admin user", err));
+    }
+
+    /**
+     * Loads the users once. Concurrent callers share the same load and a failed load is retried by the next caller.
+     */
+    public synchronized Future<Void> warmUp() {
+        if (initialized) {
+            return Future.succeededFuture();
+        }
+        Future<Void> current = loading;
+        if (current == null) {
+            commands.bind(Vertx.currentContext());
+            current = loadUsersAsync();
+            loading = current;
+            current.onComplete(ar -> {
+                synchronized (this) {
+                    loading = null;
+                    initialized = ar.succeeded();
+                }
+            });
+        }
+        // A load that completes right away has already cleared loading
+        return current;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
     }
 
     private Future<Void> loadUsersAsync() {
         Promise<Void> promise = Promise.promise();
         
         userDao.read()
-            .onSuccess(loadedUsers -> {
-                this.users = loadedUsers;
-                logger.info("Successfully loaded {} users from Redis", loadedUsers.size());
-                promise.complete();
-            })
+            .onSuccess(loadedUsers -> scoreDao.readScores()
+                .onSuccess(scores -> {
+                    applyStoredScores(loadedUsers, scores);
+                    this.snapshot = snapshot.next(index(loadedUsers));
+                    logger.info("Successfully loaded {} users from Redis", loadedUsers.size());
+                    promise.complete();
+                })
+                .onFailure(err -> {
+                    logger.error("Error loading user scores from Redis, using scores from the user set", err);
+                    this.snapshot = snapshot.next(index(loadedUsers));
+                    promise.complete();
+                }))
             .onFailure(err -> {
+                // Keep the users we have, an empty set here would be saved over the real ones
                 logger.error("Error loading users from Redis", err);
-                this.users = new HashSet<>();
-                promise.complete(); // Complete with empty set rather than fail
+                promise.fail(err);
             });
             
         return promise.future();
     }
 
-    protected Future<Void> saveUsersAsync() {
-        return userDao.write(users)
-            .onSuccess(v -> logger.info("Successfully saved {} users to Redis", users.size()))
+    // The score hash is the source of truth for scores. Users that predate it keep the score
+    // stored in the user set, which is copied into the hash the first time they are loaded.
+    private void applyStoredScores(Set<User> loadedUsers, Map<String, Integer> scores) {
+        Map<String, Integer> missing = new HashMap<>();
+        for (User user : loadedUsers) {
+            Integer score = scores.get(user.getName());
+            if (score != null) {
+                user.setScore(score);
+            } else {
+                missing.put(user.getName(), user.getScore());
+            }
+        }
+        scoreDao.seedScores(missing)
+            .onFailure(err -> logger.error("Error seeding user scores in Redis", err));
+    }
+
+    /**
+     * Runs a mutation on the command queue once the users are loaded.
+     */
+    private <T> Future<T> mutate(Supplier<Future<T>> command) {
+        return warmUp()
+            .onFailure(err -> logger.error("Failed to initialize users", err))
+            .compose(v -> commands.submit(command));
+    }
+
+    /**
+     * Runs {@code replace}, which changes the stored users behind this service's back, while every mutation is
+     * held back, then reloads them. If the reload fails the next caller loads them again.
+     */
+    public <T> Future<T> replaceStored(Supplier<Future<T>> replace) {
+        return mutate(() -> replace.get().compose(result -> loadUsersAsync()
+            .onFailure(err -> {
+                synchronized (this) {
+                    initialized = false;
+                }
+            })
+            .map(result)));
+    }
+
+    /**
+     * Atomically adds the given deltas to the users' scores. Negative deltas never drop a score below zero.
+     */
+    public Future<Void> applyScoreDeltas(Map<String, Integer> deltas) {
+        return mutate(() -> scoreDao.applyDeltas(deltas)
+            .onSuccess(this::updateLocalScores)
+            .onSuccess(journal::scoresChanged)
+            .onFailure(err -> logger.error("Error applying score deltas in Redis", err))
+            .mapEmpty());
+    }
+
+    public Future<Void> saveScores(Map<String, Integer> scores) {
+        return mutate(() -> scoreDao.writeScores(scores)
+            .onSuccess(v -> {
+                updateLocalScores(scores);
+                journal.scoresChanged(scores);
+            })
+            .onFailure(err -> logger.error("Error saving user scores to Redis", err)));
+    }
+
+    // Scores live in the score hash, so only the in-memory users are replaced here
+    private void updateLocalScores(Map<String, Integer> scores) {
+        Map<String, User> updated = new HashMap<>(snapshot.data());
+        scores.forEach((username, score) -> {
+            User user = updated.get(username);
+            if (user != null && score != user.getScore()) {
+                User copy = copyOf(user);
+                copy.setScore(score);
+                updated.put(username, copy);
+            }
+        });
+        this.snapshot = snapshot.next(Map.copyOf(updated));
+    }
+
+    // Later users win if the stored set holds the same name twice
+    private static Map<String, User> index(Set<User> users) {
+        Map<String, User> byName = new HashMap<>();
+        for (User user : users) {
+            byName.put(user.getName(), user);
+        }
+        return Map.copyOf(byName);
+    }
+
+    /**
+     * Stores the new users and only then makes them visible, so a failed save leaves nothing to roll back.
+     */
+    protected Future<Void> publish(Map<String, User> updated) {
+        Map<String, User> next = Map.copyOf(updated);
+        return userDao.write(Set.copyOf(next.values()))
+            .onSuccess(v -> {
+                this.snapshot = snapshot.next(next);
+                logger.info("Successfully saved {} users to Redis", next.size());
+                journal.usersChanged(next.values());
+            })
             .onFailure(err -> logger.error("Error saving users to Redis", err));
     }
 
+    private static User copyOf(User user) {
+        User copy = new User();
+        copy.setName(user.getName());
+        copy.setPassword(user.getPassword());
+        copy.setScore(user.getScore());
+        copy.setRole(user.getRole());
+        return copy;
+    }
+
+    private User findUser(String username) {
+        return username == null ? null : snapshot.data().get(username);
+    }
+
     public Future<Boolean> createUser(User user) {
-        Promise<Boolean> promise = Promise.promise();
-        
         // Ensure initialization is complete before proceeding
-        if (!initialized) {
-            loadUsersAsync()
-                .onSuccess(v -> {
-                    initialized = true;
-                    proceedWithUserCreation(user, promise);
-                })
-                .onFailure(err -> {
-                    logger.error("Failed to initialize users", err);
-                    promise.fail(err);
+        return warmUp()
+            .onFailure(err -> logger.error("Failed to initialize users", err))
+            .compose(v -> {
+                if (userExists(user.getName())) {
+                    return Future.succeededFuture(false);
+                }
+                // Hash outside the queue, the name is checked again once the command runs
+                return passwordHasher.hash(user.getPassword()).compose(hashed -> {
+                    user.setPassword(hashed);
+                    return commands.submit(() -> proceedWithUserCreation(user));
                 });
-        } else {
-            proceedWithUserCreation(user, promise);
-        }
-            
-        return promise.future();
+            });
     }
 
-    private void proceedWithUserCreation(User user, Promise<Boolean> promise) {
+    private Future<Boolean> proceedWithUserCreation(User user) {
         if (userExists(user.getName())) {
-            promise.complete(false);
-            return;
+            return Future.succeededFuture(false);
         }
 
-        String hashedPassword = BCrypt.hashpw(user.getPassword(), BCrypt.gensalt());
-        user.setPassword(hashedPassword);
         user.setScore(this.getAverageUserScore());
-        users.add(user);
-        
-        saveUsersAsync()
-            .onSuccess(v -> promise.complete(true))
-            .onFailure(err -> {
-                users.remove(user); // Rollback on failure
-                promise.fail(err);
-            });
+        Map<String, User> updated = new HashMap<>(snapshot.data());
+        updated.put(user.getName(), user);
+
+        return publish(updated)
+            .compose(v -> scoreDao.writeScores(Map.of(user.getName(), user.getScore())))
+            .map(true);
     }
 
     private boolean userExists(String username) {
-        return users.stream()
-                .anyMatch(u -> u.getName().equals(username));
+        return findUser(username) != null;
     }
 
     public Future<Boolean> authenticateUser(String username, String password) {
-        Promise<Boolean> promise = Promise.promise();
-        
-        if (!initialized) {
-            loadUsersAsync()
-                .onSuccess(v -> {
-                    initialized = true;
-                    proceedWithUserAuthentication(username, password, promise);
-                })
-                .onFailure(err -> {
-                    logger.error("Failed to initialize users", err);
-                    promise.fail(err);
+        return warmUp()
+            .onFailure(err -> logger.error("Failed to initialize users", err))
+            .compose(v -> {
+                User user = findUser(username);
+                if (user == null) {
+                    return Future.succeededFuture(false);
+                }
+                String hashed = user.getPassword();
+                return passwordHasher.verify(password, hashed).onSuccess(valid -> {
+                    if (valid && passwordHasher.needsRehash(hashed)) {
+                        rehashPassword(username, password, hashed);
+                    }
                 });
-        } else {
-            proceedWithUserAuthentication(username, password, promise);
-        }
-            
-        return promise.future();
+            });
+    }
+
+    // Moves the stored hash to the configured work factor, unless the password changed in the meantime
+    private void rehashPassword(String username, String password, String oldHash) {
+        passwordHasher.hash(password)
+            .compose(newHash -> commands.submit(() -> {
+                User current = findUser(username);
+                if (current == null || !oldHash.equals(current.getPassword())) {
+                    return Future.<Void>succeededFuture();
+                }
+                User copy = copyOf(current);
+                copy.setPassword(newHash);
+                Map<String, User> updated = new HashMap<>(snapshot.data());
+                updated.put(username, copy);
+                return publish(updated);
+            }))
+            .onSuccess(v -> logger.info("Rehashed password of user '{}' with the configured work factor", username))
+            .onFailure(err -> logger.warn("Could not rehash password of user '{}'", username, err));
+    }
+
+    /**
+     * The current users keyed by name, with their version. The map is immutable and shared, never copied per request.
+     */
+    public Future<Snapshot<Map<String, User>>> getSnapshot() {
+        return warmUp()
+            .map(v -> snapshot)
+            .onFailure(err -> logger.error("Error loading users", err));
     }
 
-    private void proceedWithUserAuthentication(String username, String password, Promise<Boolean> promise) {
-        boolean authenticated = users.stream()
-                .filter(u -> u.getName().equals(username))
-                .findFirst()
-                .map(user -> BCrypt.checkpw(password, user.getPassword()))
-                .orElse(false);
-                
-        promise.complete(authenticated);
+    /**
+     * Version of the current users, raised by every change.
+     */
+    public Future<Long> getVersion() {
+        return getSnapshot().map(Snapshot::version);
     }
 
     public Future<List<User>> getAllUsers() {
-        Promise<List<User>> promise = Promise.promise();
-        loadUsersAsync()
-            .onSuccess(v -> {
+        return getAllUsersSnapshot().map(Snapshot::data);
+    }
+
+    /**
+     * All users but the admins, together with the version they were taken from.
+     */
+    public Future<Snapshot<List<User>>> getAllUsersSnapshot() {
+        return getSnapshot()
+            .map(current -> current.map(users -> {
                 // Filter out admin users from the list
                 String adminUsername = System.getenv().getOrDefault("ADMIN_USERNAME", "admin");
-                List<User> nonAdminUsers = users.stream()
+                return users.values().stream()
                     .filter(user -> !"admin".equals(user.getRole()) && !adminUsername.equals(user.getName()))
                     .collect(java.util.stream.Collectors.toList());
-                promise.complete(nonAdminUsers);
-            })
-            .onFailure(err -> {
-                logger.error("Error loading users", err);
-                promise.fail(err);
-            });
-        return promise.future();
+            }));
     }
 
     public Future<User> getUserById(String id) {
-        Promise<User> promise = Promise.promise();
-        
-        if (!initialized) {
-            loadUsersAsync()
-                .onSuccess(v -> {
-                    initialized = true;
-                    User user = users.stream()
-                            .filter(u -> u.getName().equals(id))
-                            .findFirst()
-                            .orElse(null);
-                    promise.complete(user);
-                })
-                .onFailure(err -> {
-                    logger.error("Error loading user", err);
-                    promise.fail(err);
-                });
-        } else {
-            User user = users.stream()
-                    .filter(u -> u.getName().equals(id))
-                    .findFirst()
-                    .orElse(null);
-            promise.complete(user);
-        }
-        return promise.future();
+        return warmUp()
+            .map(v -> findUser(id))
+            .onFailure(err -> logger.error("Error loading user", err));
     }
 
     public Future<User> updateUser(String id, JsonObject updates) {
-        Promise<User> promise = Promise.promise();
-        
-        if (!initialized) {
-            loadUsersAsync()
-                .onSuccess(v -> {
-                    initialized = true;
-                    User user = users.stream()
-                            .filter(u -> u.getName().equals(id))
-                            .findFirst()
-                            .orElse(null);
-                    if (user == null) {
-                        promise.complete(null);
-                        return;
-                    }
-                    
-                    if (updates.containsKey("name")) {
-                        user.setName(updates.getString("name"));
-                    }
-                    if (updates.containsKey("score")) {
-                        user.setScore(updates.getInteger("score"));
-                    }
-                    
-                    saveUsersAsync()
-                        .onSuccess(v2 -> promise.complete(user))
-                        .onFailure(err -> promise.fail(err));
-                })
-                .onFailure(err -> {
-                    logger.error("Error loading user", err);
-                    promise.fail(err);
-                });
-        } else {
-            User user = users.stream()
-                    .filter(u -> u.getName().equals(id))
-                    .findFirst()
-                    .orElse(null);
+        return mutate(() -> {
+            User user = findUser(id);
             if (user == null) {
-                promise.complete(null);
-                return promise.future();
-            }
-            
-            if (updates.containsKey("name")) {
-                user.setName(updates.getString("name"));
+                return Future.succeededFuture(null);
             }
-            if (updates.containsKey("score")) {
-                user.setScore(updates.getInteger("score"));
-            }
-            
-            saveUsersAsync()
-                .onSuccess(v -> promise.complete(user))
-                .onFailure(err -> promise.fail(err));
+            return applyUserUpdates(user, updates);
+        });
+    }
+
+    private Future<User> applyUserUpdates(User user, JsonObject updates) {
+        User updatedUser = copyOf(user);
+        if (updates.containsKey("name")) {
+            updatedUser.setName(updates.getString("name"));
         }
-        return promise.future();
+        if (updates.containsKey("score")) {
+            updatedUser.setScore(updates.getInteger("score"));
+        }
+        String oldName = user.getName();
+        if (!oldName.equals(updatedUser.getName()) && userExists(updatedUser.getName())) {
+            return Future.failedFuture(new IllegalArgumentException("User '" + updatedUser.getName() + "' already exists"));
+        }
+        Map<String, User> updated = new HashMap<>(snapshot.data());
+        updated.remove(oldName);
+        updated.put(updatedUser.getName(), updatedUser);
+
+        return publish(updated)
+            .compose(v -> scoreDao.writeScores(Map.of(updatedUser.getName(), updatedUser.getScore())))
+            .compose(v -> oldName.equals(updatedUser.getName()) ? Future.succeededFuture() : scoreDao.removeScore(oldName))
+            .map(updatedUser);
     }
 
     public Future<Boolean> deleteUser(String id) {
-        Promise<Boolean> promise = Promise.promise();
-        
-        if (!initialized) {
-            loadUsersAsync()
-                .onSuccess(v -> {
-                    initialized = true;
-                    boolean removed = users.removeIf(u -> u.getName().equals(id));
-                    if (removed) {
-                        saveUsersAsync()
-                            .onSuccess(v2 -> promise.complete(true))
-                            .onFailure(err -> {
-                                // Rollback on failure
-                                loadUsersAsync();
-                                promise.fail(err);
-                            });
-                    } else {
-                        promise.complete(false);
-                    }
-                })
-                .onFailure(err -> {
-                    logger.error("Error loading users", err);
-                    promise.fail(err);
-                });
-        } else {
-            boolean removed = users.removeIf(u -> u.getName().equals(id));
-            if (removed) {
-                saveUsersAsync()
-                    .onSuccess(v -> promise.complete(true))
-                    .onFailure(err -> {
-                        // Rollback on failure
-                        loadUsersAsync();
-                        promise.fail(err);
-                    });
-            } else {
-                promise.complete(false);
+        return mutate(() -> {
+            if (!userExists(id)) {
+                return Future.succeededFuture(false);
             }
-        }
-        return promise.future();
+            Map<String, User> updated = new HashMap<>(snapshot.data());
+            updated.remove(id);
+            return publish(updated)
+                .compose(v -> scoreDao.removeScore(id))
+                .map(true);
+        });
     }
 
     public int getAverageUserScore() {
-        if (users.isEmpty()) {
+        Collection<User> current = snapshot.data().values();
+        if (current.isEmpty()) {
             return 0;
         }
-        return (int) Math.round(users.stream()
+        return (int) Math.round(current.stream()
                 .mapToInt(User::getScore)
                 .average()
                 .orElse(0));
@@ -348,13 +441,12 @@ public class UserService {
     public User getUserByNameSync(String username) {
         if (!initialized) {
             try {
-                loadUsersAsync().toCompletionStage().toCompletableFuture().get();
-                initialized = true;
+                warmUp().toCompletionStage().toCompletableFuture().get();
             } catch (Exception e) {
                 logger.error("Error loading users for getUserByNameSync", e);
                 return null;
             }
         }
-        return users.stream().filter(u -> u.getName().equals(username)).findFirst().orElse(null);
+        return findUser(username);
     }
 }
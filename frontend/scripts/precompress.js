@@ -0,0 +1,44 @@
+// Writes .br and .gz next to every compressible file of the production build, the backend serves
+// them as is to clients that accept them. Usage: node scripts/precompress.js build
+const fs = require('fs');
+const path = require('path');
+const zlib = require('zlib');
+
+const COMPRESSIBLE = /\.(js|css|html|json|svg|txt|map|ico)$/;
+// Below this the headers outweigh the savings
+const MIN_SIZE = 1024;
+
+function walk(dir) {
+  return fs.readdirSync(dir, { withFileTypes: true }).flatMap((entry) => {
+    const file = path.join(dir, entry.name);
+    return entry.isDirectory() ? walk(file) : [file];
+  });
+}
+
+const root = process.argv[2] || 'build';
+let count = 0;
+for (const file of walk(root)) {
+  if (!COMPRESSIBLE.test(file)) {
+    continue;
+  }
+  const content = fs.readFileSync(file);
+  if (content.length < MIN_SIZE) {
+    continue;
+  }
+  const br = zlib.brotliCompressSync(content, {
+    params: {
+      [zlib.constants.BROTLI_PARAM_QUALITY]: zlib.constants.BROTLI_MAX_QUALITY,
+      [zlib.constants.BROTLI_PARAM_SIZE_HINT]: content.length,
+    },
+  });
+  const gz = zlib.gzipSync(content, { level: zlib.constants.Z_BEST_COMPRESSION });
+  // A variant that isn't smaller is only a wasted lookup
+  if (br.length < content.length) {
+    fs.writeFileSync(file + '.br', br);
+  }
+  if (gz.length < content.length) {
+    fs.writeFileSync(file + '.gz', gz);
+  }
+  count++;
+}
+console.log(`Precompressed ${count} files in ${root}`);